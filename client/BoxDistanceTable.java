@@ -0,0 +1,200 @@
+package client;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Number of box moves (pushes and pulls) needed to bring a box to a target cell.
+ *
+ * The tables follow the preconditions of World.update: a push needs the agent on a side of the
+ * box other than the destination, a pull needs a free cell next to the agent other than the box.
+ * The agent can only walk around the box to another side if those sides are connected with the
+ * box cell blocked. Only static walls are considered, so the distances are a lower bound
+ * and cells marked UNREACHABLE can never bring the box to the target.
+ *
+ * Tables are computed by a backward BFS over (box cell, agent side) on first use per target.
+ */
+public class BoxDistanceTable {
+	public static final int UNREACHABLE = DistanceTable.UNREACHABLE;
+
+	// Sides in the order of Command.dir: N, W, E, S. The opposite side of s is 3 - s.
+	private static final int SIDES = 4;
+
+	private final int width;
+	private final int height;
+	private final boolean[] walls;
+	private final AtomicReferenceArray<short[]> tables;
+
+	// Per cell and side: id of the group of sides that are connected around the blocked cell, -1 for walls
+	private byte[] sideGroups;
+
+	public BoxDistanceTable(int width, int height, boolean[] walls) {
+		this.width = width;
+		this.height = height;
+		this.walls = walls;
+		this.tables = new AtomicReferenceArray<short[]>(width * height);
+	}
+
+	/**
+	 * @return the minimal number of box moves from boxCell to targetCell or UNREACHABLE.
+	 */
+	public int getDistance(int boxCell, int targetCell) {
+		if (boxCell < 0 || targetCell < 0) {
+			return UNREACHABLE;
+		}
+		short[] table = tables.get(targetCell);
+		if (table == null) {
+			table = computeTable(targetCell);
+			tables.compareAndSet(targetCell, null, table);
+		}
+		return table[boxCell];
+	}
+
+	private int neighbour(int cell, int side) {
+		int x = cell % width;
+		int y = cell / width;
+		switch (side) {
+		case 0:
+			return y > 0 ? cell - width : -1;
+		case 1:
+			return x > 0 ? cell - 1 : -1;
+		case 2:
+			return x < width - 1 ? cell + 1 : -1;
+		case 3:
+			return y < height - 1 ? cell + width : -1;
+		}
+		return -1;
+	}
+
+	private boolean isOpen(int cell) {
+		return cell >= 0 && !walls[cell];
+	}
+
+	private synchronized byte[] getSideGroups() {
+		if (sideGroups == null) {
+			sideGroups = computeSideGroups();
+		}
+		return sideGroups;
+	}
+
+	private byte[] computeSideGroups() {
+		int size = width * height;
+		byte[] groups = new byte[size * SIDES];
+		Arrays.fill(groups, (byte) -1);
+		int[] visited = new int[size];
+		int[] queue = new int[size];
+		int stamp = 0;
+
+		for (int cell = 0; cell < size; cell++) {
+			if (walls[cell])
+				continue;
+			byte group = 0;
+			for (int side = 0; side < SIDES; side++) {
+				int start = neighbour(cell, side);
+				if (!isOpen(start) || groups[cell * SIDES + side] >= 0)
+					continue;
+				groups[cell * SIDES + side] = group;
+
+				int missing = 0;
+				for (int other = side + 1; other < SIDES; other++) {
+					if (isOpen(neighbour(cell, other)) && groups[cell * SIDES + other] < 0)
+						missing++;
+				}
+
+				// BFS around the blocked cell until all other open sides are found
+				stamp++;
+				visited[cell] = stamp;
+				visited[start] = stamp;
+				int head = 0;
+				int tail = 0;
+				queue[tail++] = start;
+				while (head < tail && missing > 0) {
+					int current = queue[head++];
+					for (int dir = 0; dir < SIDES; dir++) {
+						int next = neighbour(current, dir);
+						if (!isOpen(next) || visited[next] == stamp)
+							continue;
+						visited[next] = stamp;
+						queue[tail++] = next;
+						for (int other = side + 1; other < SIDES; other++) {
+							if (next == neighbour(cell, other) && groups[cell * SIDES + other] < 0) {
+								groups[cell * SIDES + other] = group;
+								missing--;
+							}
+						}
+					}
+				}
+				group++;
+			}
+		}
+		return groups;
+	}
+
+	private short[] computeTable(int target) {
+		int size = width * height;
+		byte[] groups = getSideGroups();
+		short[] stateDistance = new short[size * SIDES];
+		Arrays.fill(stateDistance, (short) UNREACHABLE);
+		short[] table = new short[size];
+		Arrays.fill(table, (short) UNREACHABLE);
+		if (walls[target]) {
+			return table;
+		}
+
+		int[] queue = new int[size * SIDES];
+		int head = 0;
+		int tail = 0;
+		table[target] = 0;
+		for (int side = 0; side < SIDES; side++) {
+			if (groups[target * SIDES + side] >= 0) {
+				stateDistance[target * SIDES + side] = 0;
+				queue[tail++] = target * SIDES + side;
+			}
+		}
+
+		while (head < tail) {
+			int state = queue[head++];
+			int cell = state / SIDES;
+			int agentSide = state % SIDES;
+			short next = (short) (stateDistance[state] + 1);
+
+			// Push: the box came from the agent's cell, the agent pushed from any side but the target cell
+			int from = neighbour(cell, agentSide);
+			int pushDir = SIDES - 1 - agentSide;
+			for (int side = 0; side < SIDES; side++) {
+				if (side != pushDir && groups[from * SIDES + side] >= 0) {
+					tail = addPredecessors(groups, stateDistance, table, queue, tail, from, groups[from * SIDES + side], next);
+				}
+			}
+
+			// Pull: the agent stood on this cell and the box came from any side but the one opposite to the agent
+			for (int pullDir = 0; pullDir < SIDES; pullDir++) {
+				if (pullDir == SIDES - 1 - agentSide)
+					continue;
+				from = neighbour(cell, SIDES - 1 - pullDir);
+				if (isOpen(from)) {
+					tail = addPredecessors(groups, stateDistance, table, queue, tail, from, groups[from * SIDES + pullDir], next);
+				}
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Adds all states with the box on the cell and the agent on a side of the given group.
+	 */
+	private int addPredecessors(byte[] groups, short[] stateDistance, short[] table, int[] queue, int tail,
+			int cell, byte group, short distance) {
+		for (int side = 0; side < SIDES; side++) {
+			int state = cell * SIDES + side;
+			if (groups[state] == group && stateDistance[state] == UNREACHABLE) {
+				stateDistance[state] = distance;
+				queue[tail++] = state;
+				if (table[cell] == UNREACHABLE) {
+					table[cell] = distance;
+				}
+			}
+		}
+		return tail;
+	}
+}
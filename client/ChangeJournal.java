@@ -0,0 +1,48 @@
+package client;
+
+/**
+ * Record of the cells whose occupancy has changed in a World.
+ *
+ * The journal is a ring buffer of cell indices. Readers remember the version they have seen and
+ * ask for the cells changed since then; if the ring has been overwritten in the meantime they
+ * get null and have to start over.
+ */
+public class ChangeJournal {
+	private static final int CAPACITY = 1 << 12;
+
+	private final int[] cells = new int[CAPACITY];
+	private long version = 0;
+
+	public void record(int cell) {
+		cells[(int) (version & (CAPACITY - 1))] = cell;
+		version++;
+	}
+
+	/**
+	 * Forgets all recorded changes, readers with an older version have to start over.
+	 */
+	public void invalidate() {
+		version += CAPACITY + 1;
+	}
+
+	/**
+	 * @return the current version, it grows with every recorded change.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the cells changed since the given version (may contain duplicates) or null if they are no longer known.
+	 */
+	public int[] getChangesSince(long since) {
+		if (version - since > CAPACITY || since > version) {
+			return null;
+		}
+		int[] changes = new int[(int) (version - since)];
+		for (int i = 0; i < changes.length; i++) {
+			changes[i] = cells[(int) ((since + i) & (CAPACITY - 1))];
+		}
+		return changes;
+	}
+}
@@ -2,18 +2,35 @@ package client;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
 
 import javax.management.RuntimeErrorException;
 
 import client.Command.dir;
 import client.IntentionDecomposer.WorldSubIntentionsWrapper;
 import client.Search.PlannerNode;
+import client.Search.SafeIntervalSearch;
 
 public class Client {
 	public World world = new World();
 
 	public static final Command NoOp = NoOpCommand.instance;
 	
+	// Plan searches of different agents run in parallel on snapshots of the world
+	private static final boolean parallelPlanning = Runtime.getRuntime().availableProcessors() > 1;
+	// The next subintention is planned in the background while the current plan is executed
+	private static final boolean backgroundPlanning = true;
+	private static ExecutorService planningPool = null;
+	// Conflicts between plans are resolved by a conflict-based search if it succeeds within the budget
+	private static final boolean conflictBasedSearch = true;
+	private static final long conflictSearchBudgetNanos = 10_000_000;
+	private static final int conflictSearchDelay = 2;
+	private List<LinkedList<Command>> failedConflictSearch = null;
+	// Cycles of agents waiting for each other are broken the round they form
+	private static final boolean deadlockDetection = true;
+	
 	enum AgentStatus {
 		ACTIVE,
 		WAITING
@@ -30,7 +47,15 @@ public class Client {
 		private SubIntention currentSubIntention = null;
 		private Queue<SubIntention> subIntentions = null;
 		private int inactivityCounter = 0;
+		// Rounds in a row in which a conflict held the agent back
+		private int blockedRounds = 0;
+		// The agent this agent waits for to get out of its way or to go first (-1 if none)
+		private int waitingFor = -1;
 		private int sleepTime = 0;
+		// Event on which a sleeping agent wakes up before its time is up (null if there is none)
+		private BooleanSupplier wakeCondition = null;
+		private boolean replanOnWake = false;
+		private PlanSearch pendingSearch = null;
 		
 	
 
@@ -61,6 +86,14 @@ public class Client {
 		public Point getNewPosition() {
 			return newPosition;
 		}
+		
+		/**
+		 * Starts a round: the agent hasn't chosen its command yet, so it is going to stay where it is
+		 * until it does (see World.checkPlans for the agents that have acted).
+		 */
+		public void resetNewPosition() {
+			newPosition = position;
+		}
 
 		public void setPosition(Point position) {			
 			this.position = position;
@@ -82,6 +115,50 @@ public class Client {
 		public int getInactivityCounter() {
 			return inactivityCounter;
 		}
+		
+		public int getBlockedRounds() {
+			return blockedRounds;
+		}
+		
+		public int getWaitingFor() {
+			return waitingFor;
+		}
+		
+		public void setWaitingFor(int agentId) {
+			waitingFor = agentId;
+		}
+		
+		/**
+		 * True if the agent doesn't act in this round: it sleeps or its plan has been held back by a conflict.
+		 */
+		public boolean isStuck() {
+			return (status == AgentStatus.WAITING && sleepTime > 1) || blockedRounds > 0;
+		}
+		
+		/**
+		 * True if the agent is doing a job the other agent has posted, which notifies the other agent when it is done.
+		 */
+		public boolean isWorkingFor(int ownerId) {
+			if(plan != null && !plan.isEmpty() && currentSubIntention != null && currentSubIntention.getOwner() == ownerId) {
+				return true;
+			}
+			if(subIntentions != null) {
+				for(SubIntention subIntention : subIntentions) {
+					if(subIntention.getOwner() == ownerId) {
+						return true;
+					}
+				}
+			}
+			LinkedList<Command> commands = world.getPlan(id);
+			if(commands != null) {
+				for(Command command : commands) {
+					if(command instanceof NotifyAgentCommand && ((NotifyAgentCommand)command).getAgentId() == ownerId) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
 		public AgentStatus getStatus() {
 			return status;
 		}
@@ -103,6 +180,128 @@ public class Client {
 			this.status = AgentStatus.WAITING;
 			if(time > sleepTime)
 				sleepTime = time;
+			wakeCondition = null;
+			waitingFor = -1;
+		}
+		
+		/**
+		 * Sleeps until the condition holds, e.g. a cell is free again, or the time is up.
+		 * 
+		 * @param replan true if the agent has to plan again when the condition wakes it up, e.g. because it has no plan.
+		 */
+		public void sleepUntil(int time, BooleanSupplier condition, boolean replan) {
+			sleep(time);
+			wakeCondition = condition;
+			replanOnWake = replan;
+		}
+		
+		/**
+		 * Wakes the agent up if it is sleeping and the condition it is waiting for holds.
+		 */
+		public void wakeUpIfReady() {
+			if(status != AgentStatus.WAITING || wakeCondition == null || !wakeCondition.getAsBoolean()) {
+				return;
+			}
+			Logger.logLine("[" + id + "] Wake up, the condition holds");
+			wakeCondition = null;
+			waitingFor = -1;
+			sleepTime = 0;
+			if(replanOnWake) {
+				setStatus(AgentStatus.ACTIVE);
+			} else {
+				status = AgentStatus.ACTIVE;
+			}
+		}
+
+		/**
+		 * The subintention the agent is going to plan for in this round, if it can be known
+		 * before the other agents have acted (null otherwise).
+		 */
+		public SubIntention getNextSubIntention() {
+			if(world.getNumberOfUncompletedGoals() == 0 || (plan != null && (!plan.isEmpty() || plan.hasRoute()))) {
+				return null;
+			}
+			if(status == AgentStatus.WAITING && sleepTime > 1) {
+				return null;
+			}
+			return peekPlannableSubIntention();
+		}
+		
+		/**
+		 * True if the agent is going to execute the next command of its plan in this round (unless it is in conflict).
+		 */
+		public boolean isActingOnPlan() {
+			return plan != null && !plan.isEmpty() && (status == AgentStatus.ACTIVE || sleepTime <= 1);
+		}
+		
+		/**
+		 * Replaces the commands of the plan by commands that end in the same state.
+		 */
+		public void adoptPlan(LinkedList<Command> commands) {
+			plan.replaceCommands(world, this, commands);
+		}
+		
+		/**
+		 * The first queued subintention if the agent can plan for it itself (null otherwise).
+		 */
+		private SubIntention peekPlannableSubIntention() {
+			if(subIntentions == null || subIntentions.isEmpty()) {
+				return null;
+			}
+			SubIntention next = subIntentions.peek();
+			if(next instanceof MoveBoxSubIntention && !((MoveBoxSubIntention)next).getBox().getColor().equals(color)) {
+				return null;
+			}
+			return next;
+		}
+		
+		/**
+		 * Starts the search for the next subintention on a snapshot of the world,
+		 * unless a search started earlier still matches the world.
+		 */
+		public void startPlanSearch(SubIntention subIntention) {
+			if(Plan.isSearchUsable(pendingSearch, world, subIntention, this)) {
+				return;
+			}
+			dropPendingSearch();
+			pendingSearch = Plan.createSearch(new World(world), subIntention, this);
+			pendingSearch.startIn(getPlanningPool());
+		}
+		
+		/**
+		 * Starts the search for the next queued subintention in the world predicted after the current plan.
+		 * The result is used when the plan is completed if the world is as predicted by then. The
+		 * prediction assumes that nothing else moves, so there is no search while another agent has
+		 * moves in its plan: its result would be thrown away and only keep a planning thread busy.
+		 */
+		private void startBackgroundPlanSearch() {
+			if(!backgroundPlanning || plan == null || plan.isEmpty() || plan.hasRoute()) {
+				return;
+			}
+			if(SafeIntervalSearch.hasMovingAgents(world, id)) {
+				return;
+			}
+			SubIntention next = peekPlannableSubIntention();
+			if(next == null) {
+				return;
+			}
+			World predicted = plan.predictWorld(world, this);
+			if(predicted == null) {
+				return;
+			}
+			dropPendingSearch();
+			pendingSearch = Plan.createSearch(predicted, next, this);
+			pendingSearch.startIn(getPlanningPool());
+		}
+		
+		/**
+		 * Cancels the search started for a subintention, so a stale search doesn't keep a planning thread busy.
+		 */
+		private void dropPendingSearch() {
+			if(pendingSearch != null) {
+				pendingSearch.cancel();
+				pendingSearch = null;
+			}
 		}
 
 		/**
@@ -123,6 +322,11 @@ public class Client {
 					return NoOp;
 			}
 
+			// Long travel plans are planned one segment at a time
+			if(plan != null && plan.isEmpty() && plan.hasRoute()) {
+				plan.continueRoute(world, this);
+			}
+
 			// BDI Version 2
 			SubIntention delegatedSubIntention = null;
 			//Is there some job in the world, which this agent can solve.
@@ -206,7 +410,8 @@ public class Client {
 				else
 					currentSubIntention = subIntentions.poll();	
 				
-				plan = new Plan(world, currentSubIntention, this);
+				plan = new Plan(world, currentSubIntention, this, pendingSearch);
+				dropPendingSearch();
 				if(plan.isEmpty()) {
 					// Maybe the planner has recognized that it is better to wait
 					if(status != AgentStatus.WAITING) {							
@@ -229,10 +434,13 @@ public class Client {
 
 					return NoOp;
 				}
+				
+				startBackgroundPlanSearch();
 			}
 
 			if(!world.validPlan(this.id)) {
 				inactivityCounter++;
+				blockedRounds++;
 				
 				if(inactivityCounter > 30) {
 					Logger.logLine("["+id+"] Timout -> replan");
@@ -242,10 +450,13 @@ public class Client {
 				return NoOp;
 			}
 			
+			blockedRounds = 0;
+			waitingFor = -1;
 			//execute the plan
 			Command cmd = plan.execute();
 			World tempWorld = new World(world);
-			boolean validUpdate = tempWorld.update(tempWorld.getAgent(this.getId()), cmd);
+			// A notification wakes agents when the world is updated, the agents of the copy would replan in the real world
+			boolean validUpdate = cmd instanceof NotifyAgentCommand || tempWorld.update(tempWorld.getAgent(this.getId()), cmd);
 			if(!validUpdate) {
 				//TODO We have here an invalid command. What to do now?
 				Logger.logLine("Invalid command: " + cmd + " " + this);
@@ -285,8 +496,10 @@ public class Client {
 				subIntentions.clear();
 			}
 			world.clearPlan(id);
+			dropPendingSearch();
 			
 			if(plan != null) {
+				plan.clearRoute();
 				while(!plan.isEmpty()) {
 					Command cmd = plan.execute();
 					if(cmd instanceof NotifyAgentCommand) {
@@ -297,6 +510,7 @@ public class Client {
 				}
 			}
 			status = AgentStatus.ACTIVE;
+			waitingFor = -1;
 			inactivityCounter = 0;		
 		}
 
@@ -310,6 +524,7 @@ public class Client {
 			final int prime = 31;
 			int result = 1;
 			result = prime * result + this.id;
+			result = prime * result + this.position.hashCode();
 			return result;
 		}
 
@@ -337,6 +552,9 @@ public class Client {
 
 	public Client() throws IOException {
 		readMap();
+		world.enableChangeJournal();
+		world.enableReachabilityOracle();
+		world.enableClusterGraph();
 	}
 
 	private void readMap() throws IOException {
@@ -381,16 +599,139 @@ public class Client {
 		ConnectedComponent cc = new ConnectedComponent(world);
 		for ( int i = 0; i < world.getNumberOfAgents(); i++ ) {
 			Agent a = world.getAgents().get(i);
-			World.setRechableCells(cc.findPointsInConnectedComponent(a.getPosition()),a.getId());
+			World.setRechableCells(cc.findCellsInConnectedComponent(a.getPosition()),a.getId());
 		}
 		
+		GoalDependencies.computeGoalOrders(world);
 	}
 
 	private static int deadlockCount = 0;
 	
+	/**
+	 * Starts the plan searches of all agents that will plan in this round in parallel.
+	 * The agents still act one after the other and only adopt a result if it matches the
+	 * world at that time, so the outcome is the same as without the parallel searches.
+	 */
+	private void startPlanSearches() {
+		List<Agent> planningAgents = new ArrayList<Agent>();
+		List<SubIntention> nextSubIntentions = new ArrayList<SubIntention>();
+		for (Agent a : world.getAgents()) {
+			SubIntention next = a.getNextSubIntention();
+			if (next != null) {
+				planningAgents.add(a);
+				nextSubIntentions.add(next);
+			}
+		}
+		if (planningAgents.size() < 2) {
+			return;
+		}
+		
+		for (int i = 0; i < planningAgents.size(); i++) {
+			planningAgents.get(i).startPlanSearch(nextSubIntentions.get(i));
+		}
+	}
+	
+	/**
+	 * Resolves the conflicts between the plans of the agents with a conflict-based search once an
+	 * agent has been held back by a conflict for a few rounds. If it fails within the budget the
+	 * agents keep yielding to each other as before (see World.validPlan); the search is not
+	 * repeated until an agent has a new plan.
+	 */
+	private void coordinatePlans() {
+		Set<Integer> actingAgents = new HashSet<Integer>();
+		List<LinkedList<Command>> plans = new ArrayList<LinkedList<Command>>();
+		boolean blocked = false;
+		for (Agent a : world.getAgents()) {
+			if (a.isActingOnPlan()) {
+				actingAgents.add(a.getId());
+				blocked |= a.getBlockedRounds() >= conflictSearchDelay;
+			}
+			plans.add(world.getPlan(a.getId()));
+		}
+		if (!blocked || isSamePlans(plans, failedConflictSearch)) {
+			return;
+		}
+		
+		ConflictBasedSearch search = new ConflictBasedSearch(world, actingAgents, conflictSearchBudgetNanos);
+		if (!search.hasConflict()) {
+			return;
+		}
+		Map<Integer, LinkedList<Command>> newPlans = search.search();
+		if (newPlans == null) {
+			Logger.logLine("Conflict-based search failed, agents yield");
+			failedConflictSearch = plans;
+			return;
+		}
+		for (Map.Entry<Integer, LinkedList<Command>> entry : newPlans.entrySet()) {
+			Logger.logLine("[" + entry.getKey() + "] Conflict-free plan: " + entry.getValue());
+			world.getAgent(entry.getKey()).adoptPlan(entry.getValue());
+		}
+	}
+	
+	/**
+	 * True if the lists hold the same plan objects, i.e. no agent has got a new plan in the meantime.
+	 */
+	private static boolean isSamePlans(List<LinkedList<Command>> plans, List<LinkedList<Command>> otherPlans) {
+		if (otherPlans == null || plans.size() != otherPlans.size()) {
+			return false;
+		}
+		for (int i = 0; i < plans.size(); i++) {
+			if (plans.get(i) != otherPlans.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Breaks a cycle of agents waiting for each other (see WaitForGraph) the round it forms instead
+	 * of after all agents have been idle for a while (see preventDeadlock). As in World.validPlan a
+	 * higher id has a lower priority: the agent of the cycle with the highest id gives up its plan.
+	 * Agents that only wait for the cycle go on once it is broken.
+	 */
+	private void breakDeadlock() {
+		WaitForGraph graph = new WaitForGraph(world);
+		List<Integer> deadlocked = graph.findDeadlock();
+		if (deadlocked.isEmpty()) {
+			return;
+		}
+		List<Integer> cycle = graph.findCycle(deadlocked);
+		Agent a = world.getAgent(cycle.get(cycle.size() - 1));
+		Logger.logLine("Deadlock of agents " + deadlocked + ", cycle " + cycle + " -> [" + a.getId() + "] gives up");
+		if (a.getStatus() == AgentStatus.WAITING) {
+			a.setStatus(AgentStatus.ACTIVE);   // replans
+		} else {
+			a.replan();
+		}
+	}
+	
+	private static ExecutorService getPlanningPool() {
+		if (planningPool == null) {
+			planningPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+				Thread thread = new Thread(runnable, "planner");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return planningPool;
+	}
+	
 	public boolean update() throws IOException {
 		String jointAction = "[";
 		List<Command> commands = new ArrayList<Command>();
+		for (Agent a : world.getAgents()) {
+			a.resetNewPosition();
+			a.wakeUpIfReady();
+		}
+		if (parallelPlanning) {
+			startPlanSearches();
+		}
+		if (deadlockDetection) {
+			breakDeadlock();
+		}
+		if (conflictBasedSearch) {
+			coordinatePlans();
+		}
 		for ( int i = 0; i < world.getNumberOfAgents(); i++ ) {
 			commands.add(world.getAgent( i ).act());
 		}
@@ -403,6 +744,8 @@ public class Client {
 				if(!isUpdateSuccessed) {
 					Logger.logLine("XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX");
 					Logger.logLine("Invalid command: " + commands.get(index) + " agent " + index);
+					// It conflicts with a command of another agent, the server would reject both
+					validCommands.set(index, false);
 				}
 			}
 			
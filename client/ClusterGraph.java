@@ -0,0 +1,289 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Hierarchical abstraction of the level for long-range path queries (HPA*).
+ *
+ * The grid is split into square clusters. Every open cell on the border of a cluster with an open
+ * neighbour in another cluster is an entrance, so the abstraction is exact: a cell can be reached
+ * if and only if there is a path over the entrances. The distances between the entrances of a
+ * cluster are computed when the graph is built and kept up to date with the boxes of the world:
+ * when boxes move (as reported by the ChangeJournal) only the clusters they touch are recomputed.
+ * Agents are not considered.
+ *
+ * Queries connect the start and the target to the entrances of their clusters and run A* over the
+ * entrances. Like PathNode, the start and a box on the target never block.
+ */
+public class ClusterGraph {
+	public static final int CLUSTER_SIZE = 10;
+	private static final int UNREACHABLE = DistanceTable.UNREACHABLE;
+
+	private final World world;
+	private final int width;
+	private final int height;
+	private final int clustersX;
+	private final int clusterCount;
+
+	// Entrance cells per cluster and for every cell its index in the entrances of its cluster (-1 if none)
+	private final int[][] entrances;
+	private final int[] entranceIndex;
+	// Per cluster the distances between its entrances for the current boxes
+	private final short[][][] boxDistances;
+	private final boolean[] dirty;
+	private long journalVersion;
+
+	// Search buffers, valid for the cells stamped with the current search
+	private final int[] stamp;
+	private final int[] distance;
+	private final int[] parent;
+	private final int[] queue;
+	private int currentStamp = 0;
+
+	/**
+	 * Waypoints of a route: entrance cells followed by the target, with the distance from the start to each of them.
+	 */
+	public static class Route {
+		public final int[] cells;
+		public final int[] distances;
+
+		Route(int[] cells, int[] distances) {
+			this.cells = cells;
+			this.distances = distances;
+		}
+
+		public int getLength() {
+			return distances[distances.length - 1];
+		}
+	}
+
+	/**
+	 * @param world the world whose boxes are obstacles, it must have a ChangeJournal.
+	 */
+	public ClusterGraph(World world) {
+		this.world = world;
+		this.width = world.getWidth();
+		this.height = world.getHeight();
+		this.clustersX = (width + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+		this.clusterCount = clustersX * ((height + CLUSTER_SIZE - 1) / CLUSTER_SIZE);
+
+		int size = width * height;
+		stamp = new int[size];
+		distance = new int[size];
+		parent = new int[size];
+		queue = new int[size];
+
+		entranceIndex = new int[size];
+		Arrays.fill(entranceIndex, -1);
+		ArrayList<ArrayList<Integer>> found = new ArrayList<ArrayList<Integer>>();
+		for (int cluster = 0; cluster < clusterCount; cluster++) {
+			found.add(new ArrayList<Integer>());
+		}
+		for (int cell = 0; cell < size; cell++) {
+			if (world.isWallAt(cell))
+				continue;
+			for (Command.dir dir : Command.dir.values()) {
+				int next = world.neighbourCell(cell, dir);
+				if (next >= 0 && clusterOf(next) != clusterOf(cell)) {
+					ArrayList<Integer> clusterEntrances = found.get(clusterOf(cell));
+					entranceIndex[cell] = clusterEntrances.size();
+					clusterEntrances.add(cell);
+					break;
+				}
+			}
+		}
+
+		entrances = new int[clusterCount][];
+		boxDistances = new short[clusterCount][][];
+		dirty = new boolean[clusterCount];
+		for (int cluster = 0; cluster < clusterCount; cluster++) {
+			ArrayList<Integer> clusterEntrances = found.get(cluster);
+			entrances[cluster] = new int[clusterEntrances.size()];
+			for (int i = 0; i < clusterEntrances.size(); i++) {
+				entrances[cluster][i] = clusterEntrances.get(i);
+			}
+			boxDistances[cluster] = computeDistances(cluster);
+		}
+		journalVersion = world.getChangeJournal().getVersion();
+	}
+
+	/**
+	 * Shortest route over the entrances from the start to the target.
+	 *
+	 * @return null if the target can't be reached.
+	 */
+	public synchronized Route findRoute(int startCell, int targetCell) {
+		update();
+		int startCluster = clusterOf(startCell);
+		int targetCluster = clusterOf(targetCell);
+
+		// Distances inside the clusters of the start and the target
+		int[] fromStart = clusterDistances(startCell, startCluster, targetCell);
+		int[] toTarget = clusterDistances(targetCell, targetCluster, targetCell);
+		int direct = UNREACHABLE;
+		if (startCluster == targetCluster) {
+			direct = fromStart[fromStart.length - 1];
+		}
+
+		currentStamp++;
+		PriorityQueue<long[]> open = new PriorityQueue<long[]>((a, b) -> Long.compare(a[0], b[0]));
+		int[] startEntrances = entrances[startCluster];
+		for (int i = 0; i < startEntrances.length; i++) {
+			if (fromStart[i] != UNREACHABLE) {
+				relax(open, startEntrances[i], fromStart[i], -1, targetCell);
+			}
+		}
+
+		int best = direct;
+		int bestEntrance = -1;
+		while (!open.isEmpty()) {
+			long[] entry = open.poll();
+			if (entry[0] >= best) {
+				break;
+			}
+			int cell = (int) entry[1];
+			int g = distance[cell];
+			if (entry[0] != g + heuristic(cell, targetCell)) {
+				continue;   // reached with a shorter distance since
+			}
+			int cluster = clusterOf(cell);
+			int index = entranceIndex[cell];
+			if (cluster == targetCluster && toTarget[index] != UNREACHABLE && g + toTarget[index] < best) {
+				best = g + toTarget[index];
+				bestEntrance = cell;
+			}
+			short[] row = boxDistances[cluster][index];
+			int[] clusterEntrances = entrances[cluster];
+			for (int i = 0; i < clusterEntrances.length; i++) {
+				if (row[i] != UNREACHABLE) {
+					relax(open, clusterEntrances[i], g + row[i], cell, targetCell);
+				}
+			}
+			for (Command.dir dir : Command.dir.values()) {
+				int next = world.neighbourCell(cell, dir);
+				if (next >= 0 && clusterOf(next) != cluster && isOpen(next, targetCell)) {
+					relax(open, next, g + 1, cell, targetCell);
+				}
+			}
+		}
+
+		if (best == UNREACHABLE) {
+			return null;
+		}
+		ArrayList<Integer> route = new ArrayList<Integer>();
+		for (int cell = bestEntrance; cell >= 0; cell = parent[cell]) {
+			route.add(0, cell);
+		}
+		if (route.isEmpty() || route.get(route.size() - 1) != targetCell) {
+			route.add(targetCell);
+		}
+		int[] cells = new int[route.size()];
+		int[] distances = new int[route.size()];
+		for (int i = 0; i < route.size() - 1; i++) {
+			cells[i] = route.get(i);
+			distances[i] = distance[cells[i]];
+		}
+		cells[route.size() - 1] = targetCell;
+		distances[route.size() - 1] = best;
+		return new Route(cells, distances);
+	}
+
+	private void relax(PriorityQueue<long[]> open, int cell, int g, int from, int targetCell) {
+		if (stamp[cell] == currentStamp && distance[cell] <= g) {
+			return;
+		}
+		stamp[cell] = currentStamp;
+		distance[cell] = g;
+		parent[cell] = from;
+		open.add(new long[] { g + heuristic(cell, targetCell), cell });
+	}
+
+	private int heuristic(int from, int to) {
+		return Math.abs(from % width - to % width) + Math.abs(from / width - to / width);
+	}
+
+	/**
+	 * Recomputes the clusters in which boxes have moved since the last query.
+	 */
+	private void update() {
+		ChangeJournal journal = world.getChangeJournal();
+		int[] changes = journal.getChangesSince(journalVersion);
+		journalVersion = journal.getVersion();
+		if (changes == null) {
+			Arrays.fill(dirty, true);
+		} else {
+			for (int cell : changes) {
+				dirty[clusterOf(cell)] = true;
+			}
+		}
+		for (int cluster = 0; cluster < clusterCount; cluster++) {
+			if (dirty[cluster]) {
+				boxDistances[cluster] = computeDistances(cluster);
+				dirty[cluster] = false;
+			}
+		}
+	}
+
+	private short[][] computeDistances(int cluster) {
+		int[] clusterEntrances = entrances[cluster];
+		short[][] result = new short[clusterEntrances.length][];
+		for (int i = 0; i < clusterEntrances.length; i++) {
+			result[i] = new short[clusterEntrances.length];
+			if (!isOpen(clusterEntrances[i], -1)) {
+				Arrays.fill(result[i], (short) UNREACHABLE);
+				continue;
+			}
+			int[] found = clusterDistances(clusterEntrances[i], cluster, -1);
+			for (int j = 0; j < clusterEntrances.length; j++) {
+				result[i][j] = (short) found[j];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * BFS inside the cluster from the cell, which is never blocked itself.
+	 *
+	 * @return the distances to the entrances of the cluster followed by the distance to the target (UNREACHABLE if not found).
+	 */
+	private int[] clusterDistances(int fromCell, int cluster, int targetCell) {
+		int[] clusterEntrances = entrances[cluster];
+		int[] result = new int[clusterEntrances.length + 1];
+		Arrays.fill(result, UNREACHABLE);
+
+		currentStamp++;
+		int head = 0;
+		int tail = 0;
+		stamp[fromCell] = currentStamp;
+		distance[fromCell] = 0;
+		queue[tail++] = fromCell;
+		while (head < tail) {
+			int cell = queue[head++];
+			if (entranceIndex[cell] >= 0) {
+				result[entranceIndex[cell]] = distance[cell];
+			}
+			if (cell == targetCell) {
+				result[clusterEntrances.length] = distance[cell];
+			}
+			for (Command.dir dir : Command.dir.values()) {
+				int next = world.neighbourCell(cell, dir);
+				if (next >= 0 && stamp[next] != currentStamp && clusterOf(next) == cluster && isOpen(next, targetCell)) {
+					stamp[next] = currentStamp;
+					distance[next] = distance[cell] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return result;
+	}
+
+	private boolean isOpen(int cell, int targetCell) {
+		return cell == targetCell || world.getBoxIndexAt(cell) < 0;
+	}
+
+	private int clusterOf(int cell) {
+		return (cell / width) / CLUSTER_SIZE * clustersX + (cell % width) / CLUSTER_SIZE;
+	}
+}
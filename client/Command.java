@@ -30,10 +30,21 @@ public class Command {
 
 	public final static Command[] every;
 
+	/**
+	 * The shared Move command for the direction (the first entries of every).
+	 */
+	public static Command move( dir d ) {
+		return every[d.ordinal()];
+	}
+
 	public static boolean isOpposite( dir d1, dir d2 ) {
 		return d1.ordinal() + d2.ordinal() == 3;
 	}
 
+	public static dir opposite( dir d ) {
+		return dir.values()[3 - d.ordinal()];
+	}
+
 	// Order of enum important for determining opposites
 	public static enum dir {
 		N, W, E, S
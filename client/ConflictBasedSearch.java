@@ -0,0 +1,336 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import client.Client.Agent;
+import client.Search.SpaceTimeSearch;
+
+/**
+ * Conflict-based search (CBS) over the plans of the agents.
+ *
+ * The root of the constraint tree holds the current plans of the world. Two plans conflict when
+ * they use a common cell at the same step, as in World.checkPlans (the cells of the agent before
+ * and after the step and of the moved box; after its end a plan keeps the cells of the agent and
+ * of the box). The first conflict splits a node into two children: in each one of the two agents
+ * must not use the cell at that step and its plan is searched again with a SpaceTimeSearch that
+ * ends in the same state. Nodes are expanded by the total length of their plans.
+ *
+ * Agents without a plan and agents that don't act in this round stand still, their cells are
+ * obstacles. The plans of the acting agents can only be changed if they move at most one box and end
+ * with their moves (commands that don't move, like notifications, are kept at the end). The search
+ * gives up when the time budget is used up; the agents then resolve their conflicts as before.
+ */
+public class ConflictBasedSearch {
+	private static final int maxExtraSteps = 20;
+	private static final int maxNodes = 500;
+
+	private final World world;
+	private final long deadline;
+	private final List<Integer> agentIds = new ArrayList<Integer>();
+	private final Map<Integer, AgentPlan> agentPlans = new HashMap<Integer, AgentPlan>();
+	private final boolean[] obstacles;
+
+	/**
+	 * The plan of an agent split into its moves and the commands at the end that don't move.
+	 */
+	private class AgentPlan {
+		LinkedList<Command> moves = new LinkedList<Command>();
+		List<Command> tail = new ArrayList<Command>();
+		boolean replannable;
+		int startCell;
+		int boxStartCell = -1;
+		int endCell;
+		int boxEndCell = -1;
+	}
+
+	private static class Node {
+		Map<Integer, LinkedList<Command>> moves;
+		Map<Integer, int[]> footprints;
+		Map<Integer, Set<Long>> constraints;
+		int cost;
+	}
+
+	/**
+	 * @param actingAgents the agents that act on their plans in this round.
+	 * @param timeBudgetNanos the time the search may take.
+	 */
+	public ConflictBasedSearch(World world, Set<Integer> actingAgents, long timeBudgetNanos) {
+		this.world = world;
+		this.deadline = System.nanoTime() + timeBudgetNanos;
+
+		obstacles = new boolean[world.getLevelSize()];
+		for (int cell = 0; cell < obstacles.length; cell++) {
+			obstacles[cell] = world.isWallAt(cell) || world.getBoxIndexAt(cell) >= 0;
+		}
+		for (Agent agent : world.getAgents()) {
+			LinkedList<Command> plan = world.getPlan(agent.getId());
+			if (plan == null || !actingAgents.contains(agent.getId())) {
+				obstacles[world.cellIndex(agent.getPosition())] = true;
+				continue;
+			}
+			agentIds.add(agent.getId());
+			agentPlans.put(agent.getId(), split(agent, plan));
+		}
+	}
+
+	/**
+	 * True if the first conflict of the current plans is between two agents whose plans can be
+	 * changed. Other conflicts, e.g. with an agent standing in the way, are left to the agents.
+	 */
+	public boolean hasConflict() {
+		Node root = createRoot();
+		if (root == null) {
+			return false;
+		}
+		int[] conflict = findConflict(root);
+		return conflict != null && agentPlans.get(conflict[1]).replannable && agentPlans.get(conflict[2]).replannable;
+	}
+
+	/**
+	 * @return the new plans of the agents whose plans have changed or null if no plans without
+	 *         conflicts have been found within the budget.
+	 */
+	public Map<Integer, LinkedList<Command>> search() {
+		Node root = createRoot();
+		if (root == null) {
+			return null;
+		}
+		PriorityQueue<Node> open = new PriorityQueue<Node>((a, b) -> Integer.compare(a.cost, b.cost));
+		open.add(root);
+		int nodes = 0;
+		while (!open.isEmpty() && nodes++ < maxNodes && System.nanoTime() < deadline) {
+			Node node = open.poll();
+			int[] conflict = findConflict(node);
+			if (conflict == null) {
+				return getChangedPlans(root, node);
+			}
+			for (int i = 1; i <= 2; i++) {
+				Node child = constrain(node, conflict[i], conflict[3], conflict[0]);
+				if (child != null) {
+					open.add(child);
+				}
+			}
+		}
+		return null;
+	}
+
+	private Node createRoot() {
+		Node root = new Node();
+		root.moves = new HashMap<Integer, LinkedList<Command>>();
+		root.footprints = new HashMap<Integer, int[]>();
+		root.constraints = new HashMap<Integer, Set<Long>>();
+		for (int id : agentIds) {
+			AgentPlan plan = agentPlans.get(id);
+			int[] footprint = footprint(plan.startCell, plan.moves, plan.tail);
+			if (footprint == null) {
+				return null;
+			}
+			root.moves.put(id, plan.moves);
+			root.footprints.put(id, footprint);
+			root.constraints.put(id, new HashSet<Long>());
+			root.cost += plan.moves.size();
+		}
+		return root;
+	}
+
+	/**
+	 * The child of the node in which the agent must not use the cell at the step, null if the agent
+	 * can't be replanned or has no plan under the constraints.
+	 */
+	private Node constrain(Node node, int agentId, int cell, int step) {
+		AgentPlan plan = agentPlans.get(agentId);
+		if (!plan.replannable) {
+			return null;
+		}
+		Set<Long> constraints = new HashSet<Long>(node.constraints.get(agentId));
+		constraints.add(SpaceTimeSearch.constraintKey(world, cell, step));
+
+		boolean[] agentObstacles = obstacles;
+		if (plan.boxStartCell >= 0) {
+			agentObstacles = obstacles.clone();
+			agentObstacles[plan.boxStartCell] = false;
+		}
+		SpaceTimeSearch search = new SpaceTimeSearch(world, agentObstacles, plan.startCell, plan.boxStartCell,
+				plan.endCell, plan.boxEndCell, constraints, plan.moves.size() + maxExtraSteps, deadline);
+		LinkedList<Command> moves = search.search();
+		if (moves == null) {
+			return null;
+		}
+		int[] footprint = footprint(plan.startCell, moves, plan.tail);
+		if (footprint == null) {
+			return null;
+		}
+
+		Node child = new Node();
+		child.moves = new HashMap<Integer, LinkedList<Command>>(node.moves);
+		child.footprints = new HashMap<Integer, int[]>(node.footprints);
+		child.constraints = new HashMap<Integer, Set<Long>>(node.constraints);
+		child.moves.put(agentId, moves);
+		child.footprints.put(agentId, footprint);
+		child.constraints.put(agentId, constraints);
+		child.cost = node.cost - node.moves.get(agentId).size() + moves.size();
+		return child;
+	}
+
+	/**
+	 * The first conflict of the node.
+	 *
+	 * @return the step, the two agents and the cell or null if there is no conflict.
+	 */
+	private int[] findConflict(Node node) {
+		int[] first = null;
+		for (int i = 0; i < agentIds.size(); i++) {
+			int[] footprint1 = node.footprints.get(agentIds.get(i));
+			for (int j = i + 1; j < agentIds.size(); j++) {
+				int[] footprint2 = node.footprints.get(agentIds.get(j));
+				int steps = Math.max(footprint1.length, footprint2.length) / 3;
+				for (int step = 0; step <= steps && (first == null || step < first[0]); step++) {
+					int cell = commonCell(footprint1, footprint2, step);
+					if (cell >= 0) {
+						first = new int[] { step, agentIds.get(i), agentIds.get(j), cell };
+						break;
+					}
+				}
+			}
+		}
+		return first;
+	}
+
+	private static int commonCell(int[] footprint1, int[] footprint2, int step) {
+		for (int which = 0; which < 3; which++) {
+			int cell = getCell(footprint1, step, which);
+			for (int other = 0; other < 3; other++) {
+				if (cell == getCell(footprint2, step, other)) {
+					return cell;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The cell of the agent before the step (0), after it (1) or of the box (2); after the end of
+	 * the plan the last cell of the agent or of the box.
+	 */
+	private static int getCell(int[] footprint, int step, int which) {
+		int length = (footprint.length - 2) / 3;
+		if (step < length) {
+			return footprint[step * 3 + which];
+		}
+		return footprint[length * 3 + (which == 2 ? 1 : 0)];
+	}
+
+	/**
+	 * The cells used by the plan per step as in World.checkPlans, followed by the end cells of the agent and the box.
+	 *
+	 * @return null if the plan runs into a wall.
+	 */
+	private int[] footprint(int startCell, List<Command> moves, List<Command> tail) {
+		int[] footprint = new int[(moves.size() + tail.size()) * 3 + 2];
+		int cell = startCell;
+		int boxEndCell = -1;
+		int index = 0;
+		// Iterators, the moves are a LinkedList
+		Iterator<Command> commands = moves.iterator();
+		Iterator<Command> tailCommands = tail.iterator();
+		while (commands.hasNext() || tailCommands.hasNext()) {
+			Command command = commands.hasNext() ? commands.next() : tailCommands.next();
+			int next = command.dir1 == null ? cell : world.neighbourCell(cell, command.dir1);
+			int boxCell = cell;
+			if (command.actType == Command.type.Push) {
+				boxCell = next < 0 ? -1 : world.neighbourCell(next, command.dir2);
+				boxEndCell = boxCell;
+			} else if (command.actType == Command.type.Pull) {
+				boxCell = world.neighbourCell(cell, command.dir2);
+				boxEndCell = cell;
+			}
+			if (next < 0 || boxCell < 0) {
+				return null;
+			}
+			footprint[index++] = cell;
+			footprint[index++] = next;
+			footprint[index++] = boxCell;
+			cell = next;
+		}
+		footprint[index++] = cell;
+		footprint[index] = boxEndCell >= 0 ? boxEndCell : cell;
+		return footprint;
+	}
+
+	/**
+	 * Splits the plan into its moves and the commands that don't move at its end and finds the box it moves.
+	 */
+	private AgentPlan split(Agent agent, LinkedList<Command> plan) {
+		AgentPlan agentPlan = new AgentPlan();
+		agentPlan.startCell = world.cellIndex(agent.getPosition());
+		agentPlan.replannable = true;
+
+		int last = plan.size() - 1;
+		Iterator<Command> backwards = plan.descendingIterator();
+		while (backwards.hasNext() && backwards.next().dir1 == null) {
+			last--;
+		}
+		int cell = agentPlan.startCell;
+		int boxCell = -1;
+		int index = 0;
+		for (Command command : plan) {
+			if (index++ > last) {
+				agentPlan.tail.add(command);
+				continue;
+			}
+			agentPlan.moves.add(command);
+			if (command.dir1 == null) {
+				if (command instanceof NotifyAgentCommand) {
+					agentPlan.replannable = false;
+				}
+				continue;
+			}
+			int next = world.neighbourCell(cell, command.dir1);
+			int from = -1;
+			if (command.actType == Command.type.Push) {
+				from = next;
+			} else if (command.actType == Command.type.Pull) {
+				from = world.neighbourCell(cell, command.dir2);
+			}
+			if (from >= 0) {
+				if (agentPlan.boxStartCell < 0) {
+					agentPlan.boxStartCell = from;
+				} else if (from != boxCell) {
+					agentPlan.replannable = false;   // more than one box
+				}
+				boxCell = command.actType == Command.type.Push ? world.neighbourCell(from, command.dir2) : cell;
+			}
+			if (next < 0) {
+				agentPlan.replannable = false;
+				break;
+			}
+			cell = next;
+		}
+		agentPlan.endCell = cell;
+		agentPlan.boxEndCell = boxCell;
+		if (agentPlan.boxStartCell >= 0 && world.getBoxIndexAt(agentPlan.boxStartCell) < 0) {
+			agentPlan.replannable = false;
+		}
+		return agentPlan;
+	}
+
+	private Map<Integer, LinkedList<Command>> getChangedPlans(Node root, Node solution) {
+		Map<Integer, LinkedList<Command>> changed = new HashMap<Integer, LinkedList<Command>>();
+		for (int id : agentIds) {
+			if (solution.moves.get(id) != root.moves.get(id)) {
+				LinkedList<Command> plan = new LinkedList<Command>(solution.moves.get(id));
+				plan.addAll(agentPlans.get(id).tail);
+				changed.put(id, plan);
+			}
+		}
+		return changed;
+	}
+}
@@ -1,103 +1,128 @@
 package client;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.BitSet;
 
 import client.Command.dir;
 
 public class ConnectedComponent {
-	private HashSet<Point> explored = new HashSet<Point>();
+	// Component label per cell, -1 for cells that are not free
+	private int[] labels;
 	private World world;
 	private int numberOfConnectedComponent;
 	public boolean isBoxBlocking = true;
 	public boolean isAgentBlocking = true;
-	
+
 	public int getNumberOfConnectedComponent() {
 		return numberOfConnectedComponent;
 	}
-	
+
 	public ConnectedComponent(World world) {
 		this.world = world;
 	}
-	
+
+	/**
+	 * Labels all free cells in one sweep over the grid. Every free cell is joined with its free
+	 * west and north neighbours (union-find), then the roots are numbered.
+	 */
 	public void calculateNumberOfConnectedComponents() {
-		for(int x = 0; x < world.getWidth(); x++) {
-			for(int y = 0; y < world.getHeight(); y++) {
-				Point startPoint = new Point(x, y);
-				if(!freePoint(startPoint)) {
-					continue;
-				}
-				if(explored.contains(startPoint)) {
-					continue;
-				}
-				
-				Logger.logLine(startPoint);
-				numberOfConnectedComponent += 1;
-				
-				BFS(startPoint);
+		int width = world.getWidth();
+		int[] parent = new int[world.getLevelSize()];
+		for(int cell = 0; cell < parent.length; cell++) {
+			if(!freeCell(cell)) {
+				parent[cell] = -1;
+				continue;
+			}
+			parent[cell] = cell;
+			if(cell % width > 0 && parent[cell - 1] >= 0) {
+				union(parent, cell - 1, cell);
 			}
-		}		
+			if(cell >= width && parent[cell - width] >= 0) {
+				union(parent, cell - width, cell);
+			}
+		}
+
+		labels = new int[parent.length];
+		numberOfConnectedComponent = 0;
+		for(int cell = 0; cell < parent.length; cell++) {
+			if(parent[cell] < 0) {
+				labels[cell] = -1;
+			}
+			else if(find(parent, cell) == cell) {
+				labels[cell] = numberOfConnectedComponent++;
+			}
+			else {
+				// Roots come before the cells of their component
+				labels[cell] = labels[find(parent, cell)];
+			}
+		}
 	}
-	
-	private boolean freePoint(Point point) {
-		if(world.isWallAt(point)) {
+
+	private static int find(int[] parent, int cell) {
+		while(parent[cell] != cell) {
+			parent[cell] = parent[parent[cell]];
+			cell = parent[cell];
+		}
+		return cell;
+	}
+
+	private static void union(int[] parent, int a, int b) {
+		int rootA = find(parent, a);
+		int rootB = find(parent, b);
+		// The smaller cell becomes the root
+		if(rootA < rootB) {
+			parent[rootB] = rootA;
+		}
+		else if(rootB < rootA) {
+			parent[rootA] = rootB;
+		}
+	}
+
+	private boolean freeCell(int cell) {
+		if(world.isWallAt(cell)) {
 			return false;
 		}
-		if(world.isBoxAt(point) && isBoxBlocking) {
+		if(isBoxBlocking && world.getBoxIndexAt(cell) >= 0) {
 			return false;
 		}
-		if(world.isAgentAt(point) && isAgentBlocking) {
+		if(isAgentBlocking && world.getAgentIndexAt(cell) >= 0) {
 			return false;
 		}
 		return true;
 	}
 
-	private void BFS(Point startPoint) {
-		Queue<Point> frontier = new LinkedList<Point>();
-		frontier.add(startPoint);
-		
-		while(!frontier.isEmpty()) {
-			Point point = frontier.poll();
-			for (Point p : findNeighbours(point)) {
-				if(!freePoint(p) ||
-				   explored.contains(p) ||
-				   frontier.contains(p)) {
-					continue;
-				} else {
-					frontier.add(p);
-				}
-			}
-			explored.add(point);
-		}
-	}
-	
 	/**
-	 * You can use the same connected component object to call this function twice
-	 * @param point
-	 * @return
+	 * The cells that can be reached from the point: the point itself (which may be blocked, e.g. by
+	 * the agent standing on it) and the components of its free neighbours.
+	 * The cells are labelled on the first call, later calls reuse the labels.
+	 *
+	 * @return the cell indices of the reachable cells.
 	 */
-	public ArrayList<Point> findPointsInConnectedComponent(Point point) {
-		BFS(point);
-		return new ArrayList<Point>(explored);
-	}
-	
-	private ArrayList<Point> findNeighbours(Point point) {
-		ArrayList<Point> result = new ArrayList<Point>();
-		if(point.getX() > 0) {
-			result.add(point.move(dir.W));
+	public BitSet findCellsInConnectedComponent(Point point) {
+		if(labels == null) {
+			calculateNumberOfConnectedComponents();
 		}
-		if(point.getY() > 0) {
-			result.add(point.move(dir.N));			
+		int startCell = world.cellIndex(point);
+		BitSet components = new BitSet(numberOfConnectedComponent);
+		if(labels[startCell] >= 0) {
+			components.set(labels[startCell]);
 		}
-		if(point.getX() < world.getWidth() -1) {
-			result.add(point.move(dir.E));
+		for (dir d : dir.values()) {
+			int next = world.neighbourCell(startCell, d);
+			if(next >= 0 && labels[next] >= 0) {
+				components.set(labels[next]);
+			}
 		}
-		if(point.getY() < world.getHeight() -1) {
-			result.add(point.move(dir.S));			
+
+		BitSet cells = new BitSet(labels.length);
+		cells.set(startCell);
+		if(components.isEmpty()) {
+			return cells;
+		}
+		for(int cell = 0; cell < labels.length; cell++) {
+			if(labels[cell] >= 0 && components.get(labels[cell])) {
+				cells.set(cell);
+			}
 		}
-				
-		return result;
+		return cells;
 	}
 }
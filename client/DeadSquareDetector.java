@@ -0,0 +1,64 @@
+package client;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Static analysis of the level: cells from which a box can never reach a goal of its letter.
+ *
+ * Every agent can push and pull, so a cell is dead if the BoxDistanceTable has no sequence of
+ * pushes and pulls from it to a goal of the letter (ignoring the other objects). Only letters
+ * for which every box is needed to complete the goals are considered, a surplus box may be
+ * parked anywhere.
+ */
+public class DeadSquareDetector {
+	// Per letter 'A'..'Z', null if boxes of the letter are never dead
+	private final boolean[][] mixedDead = new boolean[26][];
+
+	public DeadSquareDetector(int width, int height, boolean[] walls, List<Goal> goals, List<Box> boxes,
+			BoxDistanceTable boxDistances) {
+		int[] goalCount = new int[26];
+		int[] boxCount = new int[26];
+		for (Goal goal : goals) {
+			goalCount[goal.getLetter() - 'A']++;
+		}
+		for (Box box : boxes) {
+			boxCount[box.getLetter() - 'A']++;
+		}
+
+		for (int letter = 0; letter < 26; letter++) {
+			if (goalCount[letter] == 0 || boxCount[letter] > goalCount[letter]) {
+				continue;
+			}
+			boolean[] mixed = new boolean[width * height];
+			Arrays.fill(mixed, true);
+
+			for (Goal goal : goals) {
+				if (goal.getLetter() - 'A' != letter)
+					continue;
+				int goalCell = goal.getPosition().getY() * width + goal.getPosition().getX();
+				for (int cell = 0; cell < mixed.length; cell++) {
+					if (mixed[cell] && !walls[cell] && boxDistances.getDistance(cell, goalCell) != BoxDistanceTable.UNREACHABLE) {
+						mixed[cell] = false;
+					}
+				}
+			}
+			mixedDead[letter] = mixed;
+		}
+	}
+
+	/**
+	 * True if a box with the letter on the cell can never reach a goal.
+	 */
+	public boolean isDeadSquare(int cell, char letter) {
+		boolean[] dead = mixedDead[letter - 'A'];
+		return dead != null && cell >= 0 && dead[cell];
+	}
+
+	/**
+	 * True if every box with the letter is needed to complete the goals.
+	 */
+	public boolean isEveryBoxNeeded(char letter) {
+		return mixedDead[letter - 'A'] != null;
+	}
+}
@@ -0,0 +1,121 @@
+package client;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * True shortest-path distances around the walls of the level.
+ *
+ * One table per target cell holds the distance from every cell to the target (the grid is
+ * undirected, so it works both ways). Tables for goal cells are computed up front and kept,
+ * tables for other targets are computed by a BFS on first use and cached up to a memory budget;
+ * when it is used up the cached tables are dropped. Callers should use fixed targets (goals, the
+ * end of a search) as the second cell, not cells that change during a search.
+ * Only the static walls are considered; boxes, agents and made up walls are ignored.
+ */
+public class DistanceTable {
+	public static final int UNREACHABLE = Short.MAX_VALUE;
+	// Number of table entries (cells) that may be cached for targets that are not precomputed
+	private static final int CACHE_BUDGET = 1 << 24;
+
+	private final int width;
+	private final int height;
+	private final boolean[] walls;
+	private final AtomicReferenceArray<short[]> tables;
+	private final boolean[] precomputed;
+	private final int maxCachedTables;
+	private final ConcurrentLinkedQueue<Integer> cachedTargets = new ConcurrentLinkedQueue<Integer>();
+	private final AtomicInteger cachedCount = new AtomicInteger();
+
+	public DistanceTable(int width, int height, boolean[] walls) {
+		this.width = width;
+		this.height = height;
+		this.walls = walls;
+		this.tables = new AtomicReferenceArray<short[]>(width * height);
+		this.precomputed = new boolean[width * height];
+		this.maxCachedTables = Math.max(16, CACHE_BUDGET / Math.max(1, width * height));
+	}
+
+	/**
+	 * Computes the tables of all the given target cells, they are kept for the rest of the run.
+	 */
+	public void precompute(int[] targetCells) {
+		for (int cell : targetCells) {
+			precomputed[cell] = true;
+			tables.set(cell, breadthFirstSearch(cell));
+		}
+	}
+
+	/**
+	 * @return the number of moves between the cells or UNREACHABLE.
+	 */
+	public int getDistance(int fromCell, int toCell) {
+		if (fromCell < 0 || toCell < 0) {
+			return UNREACHABLE;
+		}
+		return getTable(toCell)[fromCell];
+	}
+
+	private short[] getTable(int target) {
+		short[] table = tables.get(target);
+		if (table == null) {
+			table = breadthFirstSearch(target);
+			// Another thread may have been faster, both tables are equal
+			if (tables.compareAndSet(target, null, table) && !precomputed[target]) {
+				cachedTargets.add(target);
+				if (cachedCount.incrementAndGet() > maxCachedTables) {
+					dropCachedTables();
+				}
+			}
+		}
+		return table;
+	}
+
+	private void dropCachedTables() {
+		Integer target;
+		while ((target = cachedTargets.poll()) != null) {
+			tables.set(target, null);
+			cachedCount.decrementAndGet();
+		}
+	}
+
+	private short[] breadthFirstSearch(int target) {
+		int size = width * height;
+		short[] table = new short[size];
+		Arrays.fill(table, (short) UNREACHABLE);
+		if (walls[target]) {
+			return table;
+		}
+
+		int[] queue = new int[size];
+		int head = 0;
+		int tail = 0;
+		table[target] = 0;
+		queue[tail++] = target;
+		while (head < tail) {
+			int cell = queue[head++];
+			short next = (short) (table[cell] + 1);
+			int x = cell % width;
+			int y = cell / width;
+			if (y > 0)
+				tail = visit(table, queue, tail, cell - width, next);
+			if (y < height - 1)
+				tail = visit(table, queue, tail, cell + width, next);
+			if (x > 0)
+				tail = visit(table, queue, tail, cell - 1, next);
+			if (x < width - 1)
+				tail = visit(table, queue, tail, cell + 1, next);
+		}
+		return table;
+	}
+
+	private int visit(short[] table, int[] queue, int tail, int cell, short distance) {
+		if (!walls[cell] && table[cell] == UNREACHABLE) {
+			table[cell] = distance;
+			queue[tail++] = cell;
+		}
+		return tail;
+	}
+}
@@ -0,0 +1,156 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import client.Client.Agent;
+
+/**
+ * The order in which an agent completes its goals.
+ *
+ * The agent only gets the goals it can reach and for which it can reach a box of its color. A
+ * completed goal is a wall for the rest of the level. If walling a goal cell, together with the
+ * goals completed before, seals another goal or all boxes with its letter off from the agent, the
+ * other goal has to be completed first. These precedences are sorted topologically; goals without
+ * precedence between them keep their priority order. The order only depends on the level, so it
+ * is computed once from the initial level (see Client.readMap), for all agents in parallel, and
+ * then shared by all worlds.
+ */
+public class GoalDependencies {
+	private static Map<Integer, List<Goal>> orderByAgent = Collections.emptyMap();
+
+	/**
+	 * Sorts the goals by their priority and computes the order of the goals for every agent.
+	 *
+	 * @param world the initial level.
+	 */
+	public static void computeGoalOrders(World world) {
+		world.sortGoalsByPriority();
+		List<Goal> goalsByPriority = world.getGoals();
+		Map<Integer, List<Goal>> orders = new ConcurrentHashMap<Integer, List<Goal>>();
+		world.getAgents().parallelStream().forEach(agent -> orders.put(agent.getId(), order(world, goalsByPriority, agent)));
+		orderByAgent = orders;
+	}
+
+	/**
+	 * The goals the agent can complete, in the order they should be completed.
+	 */
+	public static List<Goal> getGoalOrder(int agentId) {
+		List<Goal> order = orderByAgent.get(agentId);
+		return order == null ? Collections.<Goal>emptyList() : order;
+	}
+
+	private static List<Goal> order(World world, List<Goal> goalsByPriority, Agent agent) {
+		List<Box> boxes = world.getBoxes(agent.getColor());
+		int source = world.cellIndex(agent.getPosition());
+		BitSet walls = new BitSet(world.getLevelSize());
+		BitSet start = flood(world, source, walls);
+
+		List<Goal> goals = new ArrayList<Goal>();
+		for (Goal goal : goalsByPriority) {
+			if (!start.get(world.cellIndex(goal.getPosition()))) {
+				continue;
+			}
+			for (Box box : boxes) {
+				if (box.getLetter() == goal.getLetter() && start.get(world.cellIndex(box.getPosition()))) {
+					goals.add(goal);
+					break;
+				}
+			}
+		}
+		if (goals.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		int n = goals.size();
+		int[] cells = new int[n];
+		for (int i = 0; i < n; i++) {
+			cells[i] = world.cellIndex(goals.get(i).getPosition());
+		}
+
+		// Topological sort: the next goal is the one with the highest priority that doesn't seal
+		// another open goal off once it and the completed goals are walls. If every goal seals
+		// another one off the precedences form a cycle, which is broken by priority.
+		List<Goal> order = new ArrayList<Goal>();
+		BitSet done = new BitSet(n);
+		while (order.size() < n) {
+			BitSet reachable = flood(world, source, walls);
+			int next = -1;
+			for (int j = done.nextClearBit(0); j < n && next < 0 && reachable != null; j = done.nextClearBit(j + 1)) {
+				walls.set(cells[j]);
+				BitSet sealed = flood(world, source, walls);
+				walls.clear(cells[j]);
+				if (sealed == null) {
+					continue;   // the agent stands on the goal
+				}
+				next = j;
+				for (int i = done.nextClearBit(0); i < n; i = done.nextClearBit(i + 1)) {
+					if (i != j && isSealedOff(world, goals.get(i), boxes, reachable, sealed)) {
+						next = -1;
+						break;
+					}
+				}
+			}
+			if (next < 0) {
+				next = done.nextClearBit(0);
+			}
+			done.set(next);
+			walls.set(cells[next]);
+			order.add(goals.get(next));
+		}
+		return Collections.unmodifiableList(order);
+	}
+
+	/**
+	 * True if the goal or all boxes with its letter can be reached without the sealing cell, but not with it.
+	 */
+	private static boolean isSealedOff(World world, Goal goal, List<Box> boxes, BitSet reachable, BitSet sealed) {
+		int cell = world.cellIndex(goal.getPosition());
+		if (reachable.get(cell) && !sealed.get(cell)) {
+			return true;
+		}
+		boolean reachableBox = false;
+		for (Box box : boxes) {
+			if (box.getLetter() == goal.getLetter()) {
+				int boxCell = world.cellIndex(box.getPosition());
+				if (sealed.get(boxCell)) {
+					return false;
+				}
+				reachableBox |= reachable.get(boxCell);
+			}
+		}
+		return reachableBox;
+	}
+
+	/**
+	 * The cells reachable from the source around the walls and the blocked cells.
+	 *
+	 * @return null if the source is blocked.
+	 */
+	private static BitSet flood(World world, int source, BitSet blocked) {
+		if (blocked.get(source)) {
+			return null;
+		}
+		BitSet visited = new BitSet(world.getLevelSize());
+		int[] queue = new int[world.getLevelSize()];
+		int head = 0;
+		int tail = 0;
+		visited.set(source);
+		queue[tail++] = source;
+		while (head < tail) {
+			int cell = queue[head++];
+			for (Command.dir dir : Command.dir.values()) {
+				int next = world.neighbourCell(cell, dir);
+				if (next >= 0 && !blocked.get(next) && !visited.get(next) && !world.isWallAt(next)) {
+					visited.set(next);
+					queue[tail++] = next;
+				}
+			}
+		}
+		return visited;
+	}
+}
@@ -10,12 +10,21 @@ public class AStar extends Heuristic {
 	}
 	
 	public int f( SearchNode n) {
-		return function.heuristic( n ) + n.getStepCount();
+		if ( !n.isEvaluated() ) {
+			evaluate( n );
+		}
+		return n.getF();
+	}
+	
+	@Override
+	public void evaluate( SearchNode n ) {
+		int h = function.heuristic( n );
+		n.setEvaluation( h, h + n.getStepCount() );
 	}
 	
 	@Override
 	public int compare(SearchNode node1, SearchNode node2) {
-		return this.f( node1 ) - this.f( node2 );
+		return node1.getF() - node2.getF();
 	}
 
 	@Override
@@ -5,5 +5,10 @@ import java.util.Comparator;
 import client.Search.SearchNode;
 
 public abstract class Heuristic implements Comparator< SearchNode > {
-
+	
+	/**
+	 * Computes and caches the evaluation of the node. 
+	 * Called once when the node is added to the frontier, compare() only reads the cached values.
+	 */
+	public abstract void evaluate( SearchNode n );
 }
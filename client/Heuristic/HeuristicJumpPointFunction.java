@@ -0,0 +1,22 @@
+package client.Heuristic;
+
+import client.World;
+import client.Search.JumpPointNode;
+import client.Search.SearchNode;
+
+public class HeuristicJumpPointFunction implements IHeuristicFunction {
+	private World world;
+
+	public HeuristicJumpPointFunction(World world) {
+		this.world = world;
+	}
+	
+	@Override
+	public int heuristic(SearchNode n) {
+		if(!(n instanceof JumpPointNode)) {
+			throw new RuntimeException("SearchNode is not of type JumpPointNode");
+		}
+		JumpPointNode node = (JumpPointNode)n;
+		return world.getDistance(node.getCell(), node.getTargetCell());
+	}
+}
@@ -22,12 +22,6 @@ public class HeuristicPathFunction implements IHeuristicFunction {
 			throw new RuntimeException("SearchNode is not of type PathNode");
 		}
 		PathNode node = (PathNode)n;
-		int blockedCells = 0;
-		for(Point p : node.extractListOfPossitions()) {
-			if(!world.isFreeCell(p)) {
-				blockedCells++;
-			}
-		}
-		return goalPosition.distance(node.getPosition()) + blockedCells*3;
+		return world.getDistance(node.getPosition(), goalPosition) + node.getBlockedCells()*3;
 	}
 }
@@ -1,9 +1,10 @@
 package client.Heuristic;
 
-import client.Box;
-import client.Client.Agent;
+import client.BoxDistanceTable;
 import client.MoveBoxSubIntention;
-import client.Point;
+import client.World;
+import client.Search.PlannerNode;
+import client.Search.PlannerState;
 import client.Search.SearchNode;
 
 public class HeuristicPlannerFunction implements IHeuristicFunction {
@@ -17,12 +18,42 @@ public class HeuristicPlannerFunction implements IHeuristicFunction {
 	
 	@Override
 	public int heuristic(SearchNode node) {
-		Box box = node.getWorld().getBoxById(intention.getBox().getId());
-		Point targetPosition = intention.getEndPosition();
-		Agent agent = node.getWorld().getAgent(agentId);
-		int distanceFromAgentToBox = (agent.getPosition().distance(box.getPosition()));
-		int distanceFromBoxToGoal = box.getPosition().distance(targetPosition); 
-		int goalCount = node.getWorld().getNumberOfUncompletedGoals();
+		PlannerState state = ((PlannerNode)node).getState();
+		World world = state.getContext().getWorld();
+		int boxCell = state.getBoxCell(intention.getBox().getId());
+		return heuristic(world, state.getAgentCell(), boxCell, state.getNumberOfUncompletedGoals());
+	}
+	
+	/**
+	 * The same heuristic for a world in the state to evaluate (used by IDAStarSearch).
+	 */
+	public int heuristic(World world) {
+		int boxCell = world.cellIndex(world.getBoxById(intention.getBox().getId()).getPosition());
+		int agentCell = world.cellIndex(world.getAgent(agentId).getPosition());
+		return heuristic(world, agentCell, boxCell, world.getNumberOfUncompletedGoals());
+	}
+	
+	private int heuristic(World world, int agentCell, int boxCell, int goalCount) {
+		int targetCell = world.cellIndex(intention.getEndPosition());
+		int distanceFromAgentToBox = world.getDistance(agentCell, boxCell);
+		int distanceFromBoxToGoal = world.getBoxDistance(boxCell, targetCell); 
 		return distanceFromAgentToBox*8 + distanceFromBoxToGoal + goalCount;
 	}
+	
+	/**
+	 * True if the box of the intention can't be pushed or pulled to the end position from the node.
+	 */
+	public boolean isHopeless(SearchNode node) {
+		PlannerState state = ((PlannerNode)node).getState();
+		return isHopeless(state.getContext().getWorld(), state.getBoxCell(intention.getBox().getId()));
+	}
+	
+	public boolean isHopeless(World world) {
+		return isHopeless(world, world.cellIndex(world.getBoxById(intention.getBox().getId()).getPosition()));
+	}
+	
+	private boolean isHopeless(World world, int boxCell) {
+		int targetCell = world.cellIndex(intention.getEndPosition());
+		return world.getBoxDistance(boxCell, targetCell) == BoxDistanceTable.UNREACHABLE;
+	}
 }
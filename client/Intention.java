@@ -2,10 +2,14 @@ package client;
 
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import client.Client.Agent;
 
@@ -34,56 +38,56 @@ public class Intention {
 	//TODO This should be beliefs not world.
 	public static Intention deliberate(World world, Agent agent) {
 		//Generate the desires, that is, everything the agent might want to achieve.
-		List<Box> boxes = world.getBoxes();	
-		//List<Agent> agents = world.getAgents();  // only one agent
 		List<Goal> goals = world.getGoalOrderForAgent(agent.getId());
+		
+		// The boxes the agent can move per letter, those that may be picked are checked for reachability by one flood fill
+		Map<Character, List<Box>> boxesByLetter = new HashMap<Character, List<Box>>();
+		for(Box box : world.getBoxes(agent.getColor())) {
+			boxesByLetter.computeIfAbsent(box.getLetter(), l -> new ArrayList<Box>()).add(box);
+		}
+		BitSet candidateCells = new BitSet(world.getLevelSize());
+		for(Goal goal:goals) {
+			if((!world.isGoalCompleted(goal)) && (world.isGoalAvailable(goal))) {
+				for(Box box : boxesByLetter.getOrDefault(goal.getLetter(), Collections.<Box>emptyList())) {
+					if(!isOnGoal(world, box)) {
+						candidateCells.set(world.cellIndex(box.getPosition()));
+					}
+				}
+			}
+		}
+		BitSet reachableBoxCells = findReachableBoxes(world, world.cellIndex(agent.getPosition()), candidateCells);
 				
 		Map<Goal,Map.Entry<Box,Integer>> intentenionsMap = new HashMap<Goal,Map.Entry<Box,Integer>>();
-		List<Box> takenBoxes = new ArrayList<>();		
+		Set<Box> takenBoxes = new HashSet<>();		
 		
-		// determine for each goal its closest box
+		// determine for each goal its closest box, a reachable one if there is one
 		for(Goal goal:goals) {
 			if((!world.isGoalCompleted(goal)) && (world.isGoalAvailable(goal))) {
-				boolean checkReachability = true;
-				while(intentenionsMap.get(goal) == null) {
-					for(Box box:boxes) {	
-						// Check if agent can move box						
-						if(!agent.getColor().equals(box.getColor()) || !world.isIntentionAvailable(box, goal)) {
-							continue;
-						}
-						
-						// Check if box is already taken
-						if(takenBoxes.contains(box))
-							continue;
-						
-						if(box.getLetter() == goal.getLetter())	{
-							if(checkReachability) {
-								boolean isBoxReachable = world.isPositionReachable(agent.getPosition(), 
-										                                           box.getPosition(), false, true, agent.getId());								
-								if(!isBoxReachable)
-									continue;
-							}
-							
-							Integer boxToGoalDistance = goal.getPosition().distance(box.getPosition());	
-							
-							if(intentenionsMap.containsKey(goal)) {
-								if(intentenionsMap.get(goal).getValue() > boxToGoalDistance) {
-									intentenionsMap.put(goal, new AbstractMap.SimpleEntry<Box,Integer>(box, boxToGoalDistance));
-								}
-							}
-							else {
-								intentenionsMap.put(goal, new AbstractMap.SimpleEntry<Box,Integer>(box, boxToGoalDistance));
-							}
-														
-						}			
+				int goalCell = world.cellIndex(goal.getPosition());
+				Box closestBox = null;
+				int closestDistance = 0;
+				boolean closestReachable = false;
+				for(Box box : boxesByLetter.getOrDefault(goal.getLetter(), Collections.<Box>emptyList())) {
+					// Check if box is already taken
+					if(takenBoxes.contains(box) || !world.isIntentionAvailable(box, goal))
+						continue;
+					
+					int boxCell = world.cellIndex(box.getPosition());
+					boolean isBoxReachable = candidateCells.get(boxCell) ? reachableBoxCells.get(boxCell) :
+						world.isPositionReachable(agent.getPosition(), box.getPosition(), false, true, agent.getId());
+					int boxToGoalDistance = world.getDistance(boxCell, goalCell);
+					if(closestBox == null || (isBoxReachable && !closestReachable) || 
+							(isBoxReachable == closestReachable && boxToGoalDistance < closestDistance)) {
+						closestBox = box;
+						closestDistance = boxToGoalDistance;
+						closestReachable = isBoxReachable;
 					}
-					if(checkReachability == false)
-						break;
-					checkReachability = false;
 				}
 				// Add the box to the list of taken boxes
-				if(intentenionsMap.get(goal) != null)
-					takenBoxes.add(intentenionsMap.get(goal).getKey());				
+				if(closestBox != null) {
+					intentenionsMap.put(goal, new AbstractMap.SimpleEntry<Box,Integer>(closestBox, closestDistance));
+					takenBoxes.add(closestBox);
+				}
 			}
 			else {
 				// If goal is already completed then add it to the list of taken boxes
@@ -109,6 +113,48 @@ public class Intention {
 	}
 	
 	
+	/**
+	 * The box cells the agent can reach from the start cell around the walls and the other boxes,
+	 * agents are ignored. The flood fill stops as soon as all box cells have been found.
+	 */
+	private static BitSet findReachableBoxes(World world, int startCell, BitSet boxCells) {
+		BitSet found = new BitSet(world.getLevelSize());
+		int missing = boxCells.cardinality();
+		if(missing == 0) {
+			return found;
+		}
+		BitSet visited = new BitSet(world.getLevelSize());
+		int[] queue = new int[world.getLevelSize()];
+		int head = 0;
+		int tail = 0;
+		visited.set(startCell);
+		queue[tail++] = startCell;
+		while(head < tail) {
+			int cell = queue[head++];
+			for(Command.dir dir : Command.dir.values()) {
+				int next = world.neighbourCell(cell, dir);
+				if(next < 0 || visited.get(next)) {
+					continue;
+				}
+				visited.set(next);
+				if(boxCells.get(next)) {
+					found.set(next);
+					if(--missing == 0) {
+						return found;
+					}
+				}
+				else if(!world.isWallAt(next) && world.getBoxIndexAt(next) < 0) {
+					queue[tail++] = next;
+				}
+			}
+		}
+		return found;
+	}
+	
+	private static boolean isOnGoal(World world, Box box) {
+		return world.isGoalAt(box.getPosition()) && world.getGoalAt(box.getPosition()).getLetter() == box.getLetter();
+	}
+	
 	public Intention(Goal g, Box b) {
 		this.goal = g;
 		this.box = b;		
@@ -261,7 +261,7 @@ public class IntentionDecomposer {
 					subIntentions.add(new TravelSubIntention(world.getAgent(agentId).getPosition(), newWorldBox.getPosition(), agentId, intention, intentionOwner));
 				subIntentions.add(new MoveBoxSubIntention(newWorldBox, safePosition, intention, intentionOwner));
 				newWorld = new World(newWorld);
-				newWorld.getBoxById(box.getId()).setPosition(safePosition);
+				newWorld.moveBox(box.getId(), safePosition);
 			}
 		}
 		return newWorld;
@@ -294,7 +294,7 @@ public class IntentionDecomposer {
 
 			PathNode leafNode = (PathNode) search.getAndRemoveLeaf();
 
-			if (leafNode.getPosition().equals(targetPosition)) {
+			if (leafNode.isAtTarget()) {
 				Queue<Point> path = leafNode.extractListOfPossitions();
 				//do not want to clear the objectives away from the path
 				
@@ -308,9 +308,7 @@ public class IntentionDecomposer {
 
 			search.addToExplored(leafNode);
 			for (SearchNode n : leafNode.getExpandedNodes()) {
-				if (!search.isExplored(n) && !search.inFrontier(n)) {
-					search.addToFrontier(n);
-				}
+				search.addToFrontier(n);
 			}
 		}
 	}
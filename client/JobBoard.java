@@ -0,0 +1,122 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import client.Client.Agent;
+
+/**
+ * The jobs the agents have posted for other agents: boxes of another color to move and agents to get out of the way.
+ *
+ * Jobs are indexed by the color of the box and by the id of the agent that has to travel, so an
+ * agent finds its job without looking at the jobs for the others. Every job gets a version when it
+ * is posted and an agent gets the job with the lowest version it can do, i.e. the one posted first.
+ */
+public class JobBoard {
+	private static class Job {
+		final SubIntention subIntention;
+		final long version;
+
+		Job(SubIntention subIntention, long version) {
+			this.subIntention = subIntention;
+			this.version = version;
+		}
+	}
+
+	private final Map<String, LinkedList<Job>> byColor = new HashMap<String, LinkedList<Job>>();
+	private final Map<Integer, LinkedList<Job>> byAgent = new HashMap<Integer, LinkedList<Job>>();
+	private long nextVersion = 0;
+
+	public JobBoard() {
+	}
+
+	/**
+	 * Deep copy of the board, the jobs keep their versions.
+	 */
+	public JobBoard(JobBoard old) {
+		nextVersion = old.nextVersion;
+		for (Map.Entry<String, LinkedList<Job>> entry : old.byColor.entrySet()) {
+			byColor.put(entry.getKey(), copy(entry.getValue()));
+		}
+		for (Map.Entry<Integer, LinkedList<Job>> entry : old.byAgent.entrySet()) {
+			byAgent.put(entry.getKey(), copy(entry.getValue()));
+		}
+	}
+
+	private static LinkedList<Job> copy(LinkedList<Job> jobs) {
+		LinkedList<Job> copy = new LinkedList<Job>();
+		for (Job job : jobs) {
+			copy.add(new Job(job.subIntention.deepCopy(), job.version));
+		}
+		return copy;
+	}
+
+	public void add(SubIntention subIntention) {
+		Job job = new Job(subIntention, nextVersion++);
+		if (subIntention instanceof MoveBoxSubIntention) {
+			String color = ((MoveBoxSubIntention) subIntention).getBox().getColor();
+			byColor.computeIfAbsent(color, c -> new LinkedList<Job>()).add(job);
+		} else if (subIntention instanceof TravelSubIntention) {
+			int agentId = ((TravelSubIntention) subIntention).getAgentId();
+			byAgent.computeIfAbsent(agentId, id -> new LinkedList<Job>()).add(job);
+		}
+	}
+
+	/**
+	 * The first posted job the agent can do: a box of its color to move or a travel of the agent.
+	 *
+	 * @return null if there is none.
+	 */
+	public SubIntention get(Agent agent) {
+		Job boxJob = first(byColor.get(agent.getColor()));
+		Job travelJob = first(byAgent.get(agent.getId()));
+		if (boxJob == null) {
+			return travelJob == null ? null : travelJob.subIntention;
+		}
+		if (travelJob == null || boxJob.version < travelJob.version) {
+			return boxJob.subIntention;
+		}
+		return travelJob.subIntention;
+	}
+
+	private static Job first(LinkedList<Job> jobs) {
+		return jobs == null || jobs.isEmpty() ? null : jobs.getFirst();
+	}
+
+	public void remove(SubIntention subIntention) {
+		if (subIntention instanceof MoveBoxSubIntention) {
+			remove(byColor.get(((MoveBoxSubIntention) subIntention).getBox().getColor()), subIntention);
+		} else if (subIntention instanceof TravelSubIntention) {
+			remove(byAgent.get(((TravelSubIntention) subIntention).getAgentId()), subIntention);
+		}
+	}
+
+	private static void remove(LinkedList<Job> jobs, SubIntention subIntention) {
+		if (jobs != null) {
+			jobs.removeIf(job -> job.subIntention == subIntention);
+		}
+	}
+
+	/**
+	 * @return all jobs in the order they have been posted.
+	 */
+	public List<SubIntention> getJobs() {
+		List<Job> jobs = new ArrayList<Job>();
+		for (LinkedList<Job> colorJobs : byColor.values()) {
+			jobs.addAll(colorJobs);
+		}
+		for (LinkedList<Job> agentJobs : byAgent.values()) {
+			jobs.addAll(agentJobs);
+		}
+		jobs.sort((a, b) -> Long.compare(a.version, b.version));
+
+		List<SubIntention> subIntentions = new ArrayList<SubIntention>();
+		for (Job job : jobs) {
+			subIntentions.add(job.subIntention);
+		}
+		return subIntentions;
+	}
+}
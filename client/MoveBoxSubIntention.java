@@ -1,6 +1,7 @@
 package client;
 
 import client.Search.PlannerNode;
+import client.Search.PlannerState;
 import client.Search.SearchNode;
 
 public class MoveBoxSubIntention extends SubIntention{
@@ -32,8 +33,8 @@ public class MoveBoxSubIntention extends SubIntention{
 
 	@Override
 	public boolean isCompleted(SearchNode node) {
-		PlannerNode plannerNode = (PlannerNode) node;		
-		 if(plannerNode.getWorld().getBoxById(this.getBox().getId()).getPosition().equals(this.getEndPosition())) {
+		PlannerState state = ((PlannerNode) node).getState();
+		 if(state.getBoxCell(this.getBox().getId()) == state.getContext().getWorld().cellIndex(this.getEndPosition())) {
 			 return true;
 		 }
 		return false;
@@ -1,9 +1,12 @@
 package client;
 
 import java.util.HashMap;
+import java.util.Map;
 
 public class Pattern {
 	private static HashMap<String, Integer> validPatterns = new HashMap<String, Integer>();
+	// Priority per pattern bit mask (first character is the highest bit), 0 if the pattern is not valid
+	private static int[] patternPriority = new int[256];
 	
 	static {	
 		//0
@@ -167,38 +170,58 @@ public class Pattern {
 		validPatterns.put("11001110", 2);
 		validPatterns.put("10111010", 2);
 		validPatterns.put("01110011", 2);
+		
+		for (Map.Entry<String, Integer> entry : validPatterns.entrySet()) {
+			patternPriority[Integer.parseInt(entry.getKey(), 2)] = entry.getValue();
+		}
 	}
 	
 	public static boolean isSafePoint(SafePoint spoint, World world) {
-		String pointStringPattern = translatePointIntoPattern(spoint, world);
-		//Logger.logLine("point" + spoint + "("+pointStringPattern+")");
+		int pattern = translatePointIntoPattern(spoint, world);
+		//Logger.logLine("point" + spoint + "("+Integer.toBinaryString(pattern)+")");
 		
-		if (validPatterns.containsKey(pointStringPattern)) {
+		if (patternPriority[pattern] > 0) {
 			//Logger.logLine(" is safe spot");
-			spoint.setPriority(validPatterns.get(pointStringPattern));
+			spoint.setPriority(patternPriority[pattern]);
 			return true;
 		}
 		return false;
 	}
 	
-	public static String translatePointIntoPattern (SafePoint spoint, World world) {
-		StringBuffer buffer = new StringBuffer();
+	/**
+	 * Bit mask of the 8 surrounding cells, row by row, 1 for walls and boxes.
+	 */
+	public static int translatePointIntoPattern (SafePoint spoint, World world) {
+		int pattern = 0;
 		for(int y = -1; y<=1; y++) {
 			for(int x = -1; x<=1; x++) {
 				if(x == 0 && y == 0) {
 					continue;
 				}
-				Point newPoint = new Point(spoint.getX()+x,spoint.getY()+y);
-				ObjectType objectType = getObjectTypeAtPoint(newPoint, world);
+				pattern <<= 1;
+				int px = spoint.getX()+x;
+				int py = spoint.getY()+y;
+				if(px < 0 || py < 0 || px >= world.getWidth() || py >= world.getHeight()) {
+					continue;
+				}
+				ObjectType objectType = getObjectTypeAtCell(py * world.getWidth() + px, world);
 				if (objectType==ObjectType.wall || objectType==ObjectType.box) {
-					buffer.append("1");
+					pattern |= 1;
 					spoint.increaseObjectCounter(objectType);
-				} else {
-					buffer.append("0");
 				}
 			}
 		}
-		return buffer.toString();
+		return pattern;
+	}
+	
+	public static ObjectType getObjectTypeAtCell (int cell, World world) {
+		if (world.isWallAt(cell)) {
+			return ObjectType.wall;
+		}
+		if (world.getBoxIndexAt(cell) >= 0) {
+			return ObjectType.box;
+		}
+		return ObjectType.free;
 	}
 	
 	public static ObjectType getObjectTypeAtPoint (Point point, World world) {
@@ -1,8 +1,9 @@
 package client;
 
 
+import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 
 import client.Command;
@@ -14,34 +15,100 @@ import client.SafeSpotDetector;
 import client.TravelSubIntention;
 import client.Client.Agent;
 import client.Client.AgentStatus;
-import client.Heuristic.AStar;
-import client.Heuristic.Heuristic;
-import client.Heuristic.HeuristicPathFunction;
-import client.Heuristic.HeuristicPlannerFunction;
-import client.Search.BestFirstSearch;
-import client.Search.PathNode;
-import client.Search.SearchNode;
-import client.Search.PlannerNode;
+import client.Search.DStarLite;
+import client.Search.SafeIntervalSearch;
 
 public class Plan {
-	private BestFirstSearch strategy;
 	private Queue<Command> commandQueue;
 	
+	// Waypoints of a long travel plan, the moves are planned one segment at a time
+	private ClusterGraph.Route route = null;
+	private int routeIndex = 0;
+	private TravelSubIntention routeSubIntention = null;
+	private static final int routeSegmentLength = 2 * ClusterGraph.CLUSTER_SIZE;
+	
 	
 	private static final int maxItersStart = 1500;
 	private static final int maxItersIncrement = 500;
 	private static int maxIters = maxItersStart;
+	
+	// Incremental travel searches per agent, repaired when the agent travels to the same target again
+	private static final Map<Integer, DStarLite> travelSearches = new HashMap<Integer, DStarLite>();
 
 	public Plan(World world, SubIntention subIntention, Agent agent) {
+		this(world, subIntention, agent, null);
+	}
+	
+	/**
+	 * @param speculativeSearch a search started ahead of time on a snapshot of the world (may be null).
+	 * It is only used if it still matches the world, otherwise the search is run now.
+	 */
+	public Plan(World world, SubIntention subIntention, Agent agent, PlanSearch speculativeSearch) {
 		//Logger.debug("Plan iterations limit: " + maxIters);
 		if(subIntention instanceof MoveBoxSubIntention) {
-			MoveBoxPlanner(world, (MoveBoxSubIntention)subIntention, agent);
+			MoveBoxPlanner(world, (MoveBoxSubIntention)subIntention, agent, speculativeSearch);
 		} else if (subIntention instanceof TravelSubIntention) {
-			TravelPlanner(world, (TravelSubIntention)subIntention, agent);
+			TravelPlanner(world, (TravelSubIntention)subIntention, agent, speculativeSearch);
 		}
 	}
 	
-	private void TravelPlanner(World world, TravelSubIntention subIntention, Agent agent) {
+	/**
+	 * A search for the subintention in the current world with the current iteration limit.
+	 */
+	public static PlanSearch createSearch(World world, SubIntention subIntention, Agent agent) {
+		return new PlanSearch(world, subIntention, agent.getId(), maxIters);
+	}
+	
+	/**
+	 * True if the search gives the same plan as a search for the subintention in the world would give now.
+	 */
+	public static boolean isSearchUsable(PlanSearch search, World world, SubIntention subIntention, Agent agent) {
+		return search != null && search.matches(world, subIntention, agent.getId(), maxIters);
+	}
+	
+	private static LinkedList<Command> runSearch(World world, SubIntention subIntention, Agent agent, PlanSearch speculativeSearch) {
+		PlanSearch search = speculativeSearch;
+		if(!isSearchUsable(search, world, subIntention, agent)) {
+			search = createSearch(world, subIntention, agent);
+		}
+		LinkedList<Command> commands = search.getResult();
+		if(search.isBudgetExceeded()) {
+			maxIters += maxItersIncrement;
+		}
+		return commands;
+	}
+	
+	/**
+	 * Repairs the path with the incremental search of the agent if the agent has planned to travel
+	 * to the same target before. The first plan to a target comes from the best-first search.
+	 * 
+	 * @return null if there is no valid path or the target is new, the best-first search has to be used then.
+	 */
+	private static LinkedList<Command> repairPath(World world, TravelSubIntention subIntention, Agent agent) {
+		if(world.getChangeJournal() == null) {
+			return null;
+		}
+		DStarLite search = travelSearches.get(agent.getId());
+		if(search == null || search.getTargetCell() != world.cellIndex(subIntention.getEndPosition()) || !search.canRepair()) {
+			travelSearches.put(agent.getId(), new DStarLite(world, agent.getId(), subIntention.getEndPosition()));
+			return null;
+		}
+		return search.findPath();
+	}
+	
+	/**
+	 * Plans the travel among the plans of the other agents, waiting where one of them passes.
+	 * 
+	 * @return null if no other agent is moving or no path has been found, the other searches have to be used then.
+	 */
+	private static LinkedList<Command> planAmongAgents(World world, TravelSubIntention subIntention, Agent agent) {
+		if(!SafeIntervalSearch.hasMovingAgents(world, agent.getId())) {
+			return null;
+		}
+		return new SafeIntervalSearch(world, agent.getId(), subIntention.getEndPosition(), maxIters).search();
+	}
+	
+	private void TravelPlanner(World world, TravelSubIntention subIntention, Agent agent, PlanSearch speculativeSearch) {
 		if(subIntention == null) {
 			throw new RuntimeException("Intention is null");
 		}
@@ -56,63 +123,110 @@ public class Plan {
 			return;
 		}
 		
-		Heuristic h = new AStar(new HeuristicPathFunction(world,subIntention.getEndPosition()));
-		strategy = new BestFirstSearch(h);
-		
-		boolean ignoreBoxes = false;
-		boolean ignoreAgents = false;
-//		World simpleWorld = world.getSimplifiedCopy(agent.getId());
-		World correctWorld = new World(world);
-		strategy.addToFrontier( new PathNode( correctWorld, world.getAgent(agent.getId()).getPosition(), subIntention.getEndPosition(), ignoreBoxes, ignoreAgents, agent.getId()) );
-		int iterations = 0;
+		// A speculative search only stands in for the best-first search: the travel among the other
+		// agents, the path repair and the long routes come first, as they do without one
+		LinkedList<Command> commands = planAmongAgents(world, subIntention, agent);
+		if(commands == null) {
+			commands = repairPath(world, subIntention, agent);
+		}
 		
-		while ( true ) {
-			iterations++;
-			if ( strategy.frontierIsEmpty() ) {
-				break;
-			}
-			if(iterations % 10000 == 0) {
-				Logger.logLine( iterations + "..." );
-			}
-			
-			if(iterations > maxIters) {
-				maxIters += maxItersIncrement;
+		ClusterGraph graph = world.getClusterGraph();
+		int agentCell = world.cellIndex(agent.getPosition());
+		int targetCell = world.cellIndex(subIntention.getEndPosition());
+		if(commands == null && graph != null && world.getDistance(agentCell, targetCell) >= 2 * routeSegmentLength) {
+			ClusterGraph.Route longRoute = graph.findRoute(agentCell, targetCell);
+			if(longRoute == null) {
+				Logger.logLine("TravelPlanner: end position can't be reached");
 				return;
 			}
-
-			PathNode leafNode = (PathNode)strategy.getAndRemoveLeaf();
-
-			if (subIntention.isCompleted(leafNode)) {
-				commandQueue = leafNode.extractListOfCommands();
-			    
+			if(subIntention.getOwner() == agent.getId()) {
+				route = longRoute;
+				routeIndex = 0;
+				routeSubIntention = subIntention;
+				commands = refineRoute(world, agent);
+			}
+		}
+		commandQueue = commands != null ? commands : runSearch(world, subIntention, agent, speculativeSearch);
+		finishTravelPlan(world, subIntention, agent);
+		//if(commandQueue == null)
+		//	throw new RuntimeException("No plan found for Intention: " + subIntention + " ("+ iterations + " iterations)");
+	}
+	
+	private void finishTravelPlan(World world, TravelSubIntention subIntention, Agent agent) {
+		if(commandQueue != null) {
+			if(!hasRoute()) {
 				if(world.getBoxAt(subIntention.getEndPosition()) != null) {
 					removeLastFromQueue(commandQueue);
 				}
 				
 				if(subIntention.getOwner() != agent.getId()) {
 					commandQueue.add(new NotifyAgentCommand(subIntention.getOwner()));
-				}		
-				
-			    world.putPlan(agent.getId(), commandQueue);
-			    
-			    if(commandQueue.isEmpty())
-			    	commandQueue.add(new NoOpCommand());
-			    //maxIters = maxItersStart;
-			    break;
-			}
-
-			strategy.addToExplored(leafNode);
-			for (SearchNode n : leafNode.getExpandedNodes()) {
-				if (!strategy.isExplored(n) && !strategy.inFrontier(n)) {
-					strategy.addToFrontier(n);
 				}
 			}
+			
+		    world.putPlan(agent.getId(), commandQueue);
+		    
+		    if(commandQueue.isEmpty())
+		    	commandQueue.add(new NoOpCommand());
+		    //maxIters = maxItersStart;
 		}
-		//if(commandQueue == null)
-		//	throw new RuntimeException("No plan found for Intention: " + subIntention + " ("+ iterations + " iterations)");
 	}
 	
-	private void MoveBoxPlanner(World world, MoveBoxSubIntention subIntention, Agent agent) {
+	/**
+	 * Plans the moves to the next waypoint of the route that is at least a segment length away.
+	 * 
+	 * @return null if there is no path to the waypoint, the route is dropped then.
+	 */
+	private LinkedList<Command> refineRoute(World world, Agent agent) {
+		int segmentStart = routeIndex == 0 ? 0 : route.distances[routeIndex - 1];
+		int next = routeIndex;
+		while(next < route.cells.length - 1 && route.distances[next] - segmentStart < routeSegmentLength) {
+			next++;
+		}
+		
+		TravelSubIntention segment = new TravelSubIntention(agent.getPosition(), world.cellToPoint(route.cells[next]), 
+				agent.getId(), routeSubIntention.getRootIntention(), agent.getId());
+		LinkedList<Command> commands = runSearch(world, segment, agent, null);
+		if(commands == null) {
+			route = null;
+			return null;
+		}
+		routeIndex = next + 1;
+		return commands;
+	}
+	
+	/**
+	 * True if the plan is a long travel plan and not all of its segments have been planned yet.
+	 */
+	public boolean hasRoute() {
+		return route != null && routeIndex < route.cells.length;
+	}
+	
+	/**
+	 * Plans the next segment of a long travel plan, to be called when the moves of the previous segment are executed.
+	 */
+	public void continueRoute(World world, Agent agent) {
+		Logger.logLine("[" + agent.getId() + "] Planing next segment for: " + routeSubIntention);
+		commandQueue = refineRoute(world, agent);
+		if(commandQueue == null) {
+			commandQueue = runSearch(world, routeSubIntention, agent, null);
+		}
+		finishTravelPlan(world, routeSubIntention, agent);
+	}
+	
+	/**
+	 * Replaces the commands of the plan by commands that end in the same state, e.g. with waits to avoid other agents.
+	 */
+	public void replaceCommands(World world, Agent agent, LinkedList<Command> commands) {
+		commandQueue = commands;
+		world.putPlan(agent.getId(), commandQueue);
+	}
+	
+	public void clearRoute() {
+		route = null;
+	}
+	
+	private void MoveBoxPlanner(World world, MoveBoxSubIntention subIntention, Agent agent, PlanSearch speculativeSearch) {
 		if(subIntention == null) {
 			throw new RuntimeException("Intention is null");
 		}
@@ -129,7 +243,9 @@ public class Plan {
 				if(!world.existsIntentionForBox(box)) {
 					world.addJob(new MoveBoxSubIntention(box, SafeSpotDetector.getSafeSpotForBox(world, box, null), 
 							subIntention.getRootIntention(), agent.getId()));
-					agent.sleep(30);
+					// The subintention is dropped, so plan again once the box has been moved away
+					int endCell = world.cellIndex(subIntention.getEndPosition());
+					agent.sleepUntil(30, () -> world.isFreeCell(endCell), true);
 				}
 				return;
 			}
@@ -160,61 +276,33 @@ public class Plan {
 		
 		
 		
-		Heuristic h = new AStar(new HeuristicPlannerFunction(subIntention, agent.getId()));
-		strategy = new BestFirstSearch(h);
-
-//		World simpleWorld = world.getSimplifiedCopy(agent.getId());
-		World correctWorld = new World(world);
-		strategy.addToFrontier( new PlannerNode( correctWorld, agent.getId() ) );
-
-		int iterations = 0;
-		List<Goal> completedGoals = world.getCompletedGoals();
-		while ( true ) {
-			iterations++;
-			if ( strategy.frontierIsEmpty() ) {
-				break;
-			}
-			if(iterations % 10000 == 0) {
-				Logger.logLine( iterations + "..." );
-			}
-			
-			if(iterations > maxIters) {
-				maxIters += maxItersIncrement;
-			  return;
+		commandQueue = runSearch(world, subIntention, agent, speculativeSearch);
+		if(commandQueue != null) {
+		    if(subIntention.getOwner() != agent.getId()) {
+				commandQueue.add(new NotifyAgentCommand(subIntention.getOwner()));
 			}
+		    world.putPlan(agent.getId(), commandQueue);
+		    maxIters = maxItersStart;
+		}
+	}
 
-			PlannerNode leafNode = (PlannerNode)strategy.getAndRemoveLeaf();
-
-			
-			if ( subIntention.isCompleted(leafNode)) {
-			    commandQueue = leafNode.extractListOfCommands();
-			    if(subIntention.getOwner() != agent.getId()) {
-					commandQueue.add(new NotifyAgentCommand(subIntention.getOwner()));
-				}
-			    world.putPlan(agent.getId(), commandQueue);
-			    maxIters = maxItersStart;
-				break;
+	/**
+	 * The world after the rest of the plan has been executed, assuming that nothing else moves.
+	 * 
+	 * @return null if the plan can't be executed in the world.
+	 */
+	public World predictWorld(World world, Agent agent) {
+		World predicted = new World(world);
+		Agent predictedAgent = predicted.getAgent(agent.getId());
+		for(Command cmd : commandQueue) {
+			if(cmd instanceof NotifyAgentCommand || cmd instanceof NoOpCommand) {
+				continue;
 			}
-
-			strategy.addToExplored( leafNode );
-			for ( SearchNode n : leafNode.getExpandedNodes() ) {
-				if ( !strategy.isExplored( n ) && !strategy.inFrontier( n ) ) {
-					
-					// Check if a high-priority goal has been destroyed
-					boolean validAction = true;
-					for(Goal g:completedGoals) {
-						Integer goalOrder = g.getTotalOrder(agent.getId());
-						if(goalOrder != null && goalOrder < subIntention.getRootIntention().getGoal().getTotalOrder(agent.getId()) &&
-						   !n.getWorld().isGoalCompleted(g)) {
-							validAction = false;
-							break;
-						}
-					}
-					if(validAction)
-						strategy.addToFrontier( n );
-				}
+			if(!predicted.update(predictedAgent, cmd)) {
+				return null;
 			}
 		}
+		return predicted;
 	}
 
 	public Command execute() {
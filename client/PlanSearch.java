@@ -0,0 +1,225 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import client.Heuristic.AStar;
+import client.Heuristic.Heuristic;
+import client.Heuristic.HeuristicPathFunction;
+import client.Heuristic.HeuristicPlannerFunction;
+import client.Search.BestFirstSearch;
+import client.Search.IDAStarSearch;
+import client.Search.PathNode;
+import client.Search.PlannerNode;
+import client.Search.SearchNode;
+
+/**
+ * The search part of a Plan.
+ *
+ * A search only reads the world it has been created with and has no side effects, so it can
+ * run on a snapshot of the world in another thread. Plan adopts the result of such a search
+ * only if the snapshot still matches the world and the search inputs (see matches), so the
+ * outcome is the same as if the search had been run when the plan was made.
+ */
+public class PlanSearch {
+	// Levels with at least this many cells plan MoveBox intentions with IDA* first
+	private static final int idaLevelSize = 4000;
+	private static final int idaNodesPerIteration = 20;
+
+	private final World world;
+	private final SubIntention subIntention;
+	private final int agentId;
+	private final int maxIters;
+	private final List<Goal> protectedGoals;
+
+	private Future<LinkedList<Command>> future = null;
+	private boolean budgetExceeded = false;
+
+	/**
+	 * @param world the world to search in. It is only read, but must not be changed while the search runs.
+	 * @param maxIters the iteration budget of the best-first search.
+	 */
+	public PlanSearch(World world, SubIntention subIntention, int agentId, int maxIters) {
+		this.world = world;
+		this.subIntention = subIntention;
+		this.agentId = agentId;
+		this.maxIters = maxIters;
+		this.protectedGoals = findProtectedGoals(world, subIntention, agentId);
+	}
+
+	/**
+	 * Completed goals with a higher priority than the goal of the subintention, a MoveBox plan must not destroy them.
+	 */
+	private static List<Goal> findProtectedGoals(World world, SubIntention subIntention, int agentId) {
+		List<Goal> protectedGoals = new ArrayList<Goal>();
+		if (!(subIntention instanceof MoveBoxSubIntention)) {
+			return protectedGoals;
+		}
+		for (Goal g : world.getCompletedGoals()) {
+			Integer goalOrder = g.getTotalOrder(agentId);
+			if (goalOrder != null && goalOrder < subIntention.getRootIntention().getGoal().getTotalOrder(agentId)) {
+				protectedGoals.add(g);
+			}
+		}
+		return protectedGoals;
+	}
+
+	/**
+	 * Runs the search in the pool. getResult waits for it.
+	 */
+	public void startIn(ExecutorService pool) {
+		future = pool.submit(() -> search());
+	}
+
+	/**
+	 * Stops the search if it is still queued or running, its result is not needed anymore.
+	 * The search loops check the interrupt and give up without a plan.
+	 */
+	public void cancel() {
+		if (future != null) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * True if a search with these inputs would give the same result as this one.
+	 */
+	public boolean matches(World world, SubIntention subIntention, int agentId, int maxIters) {
+		return this.subIntention == subIntention
+				&& this.agentId == agentId
+				&& this.maxIters == maxIters
+				&& this.world.isSameState(world)
+				&& this.protectedGoals.equals(findProtectedGoals(world, subIntention, agentId));
+	}
+
+	/**
+	 * @return the commands of the plan or null if no plan has been found.
+	 */
+	public LinkedList<Command> getResult() {
+		if (future == null) {
+			return search();
+		}
+		try {
+			return future.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Plan search failed for " + subIntention, e);
+		}
+	}
+
+	/**
+	 * True if the search has given up because of the iteration budget (only valid after getResult).
+	 */
+	public boolean isBudgetExceeded() {
+		return budgetExceeded;
+	}
+
+	private LinkedList<Command> search() {
+		if (subIntention instanceof MoveBoxSubIntention) {
+			return searchMoveBox((MoveBoxSubIntention) subIntention);
+		} else if (subIntention instanceof TravelSubIntention) {
+			return searchTravel((TravelSubIntention) subIntention);
+		}
+		return null;
+	}
+
+	private LinkedList<Command> searchTravel(TravelSubIntention subIntention) {
+		Heuristic h = new AStar(new HeuristicPathFunction(world, subIntention.getEndPosition()));
+		BestFirstSearch strategy = new BestFirstSearch(h);
+
+		boolean ignoreBoxes = false;
+		boolean ignoreAgents = false;
+		World correctWorld = new World(world);
+		strategy.addToFrontier(new PathNode(correctWorld, world.getAgent(agentId).getPosition(),
+				subIntention.getEndPosition(), ignoreBoxes, ignoreAgents, agentId));
+		int iterations = 0;
+
+		while (true) {
+			iterations++;
+			if (strategy.frontierIsEmpty() || Thread.currentThread().isInterrupted()) {
+				return null;
+			}
+			if (iterations % 10000 == 0) {
+				Logger.logLine(iterations + "...");
+			}
+
+			if (iterations > maxIters) {
+				budgetExceeded = true;
+				return null;
+			}
+
+			PathNode leafNode = (PathNode) strategy.getAndRemoveLeaf();
+
+			if (subIntention.isCompleted(leafNode)) {
+				return (LinkedList<Command>) leafNode.extractListOfCommands();
+			}
+
+			strategy.addToExplored(leafNode);
+			for (SearchNode n : leafNode.getExpandedNodes()) {
+				strategy.addToFrontier(n);
+			}
+		}
+	}
+
+	private LinkedList<Command> searchMoveBox(MoveBoxSubIntention subIntention) {
+		HeuristicPlannerFunction function = new HeuristicPlannerFunction(subIntention, agentId);
+
+		if (world.getLevelSize() >= idaLevelSize) {
+			IDAStarSearch search = new IDAStarSearch(new World(world), agentId, subIntention, function,
+					protectedGoals, maxIters * idaNodesPerIteration);
+			LinkedList<Command> commands = search.search();
+			if (commands != null) {
+				return commands;
+			}
+			Logger.logLine("IDA* found no plan in " + search.getExpandedNodes() + " nodes, using best-first search");
+		}
+
+		Heuristic h = new AStar(function);
+		BestFirstSearch strategy = new BestFirstSearch(h);
+
+		World correctWorld = new World(world);
+		strategy.addToFrontier(new PlannerNode(correctWorld, agentId));
+
+		int iterations = 0;
+		while (true) {
+			iterations++;
+			if (strategy.frontierIsEmpty() || Thread.currentThread().isInterrupted()) {
+				return null;
+			}
+			if (iterations % 10000 == 0) {
+				Logger.logLine(iterations + "...");
+			}
+
+			if (iterations > maxIters) {
+				budgetExceeded = true;
+				return null;
+			}
+
+			PlannerNode leafNode = (PlannerNode) strategy.getAndRemoveLeaf();
+
+			if (subIntention.isCompleted(leafNode)) {
+				return (LinkedList<Command>) leafNode.extractListOfCommands();
+			}
+
+			strategy.addToExplored(leafNode);
+			for (SearchNode n : leafNode.getExpandedNodes()) {
+				if (strategy.isNewOrCheaper(n) && !function.isHopeless(n)) {
+
+					// Check if a high-priority goal has been destroyed
+					boolean validAction = true;
+					for (Goal g : protectedGoals) {
+						if (!((PlannerNode) n).getState().isGoalCompleted(g)) {
+							validAction = false;
+							break;
+						}
+					}
+					if (validAction)
+						strategy.addToFrontier(n);
+				}
+			}
+		}
+	}
+}
@@ -72,7 +72,7 @@ public class Point {
 	
 	@Override
 	public int hashCode() {
-		final int prime = 127;
-		return this.x * prime + this.y;
+		// Unique for all coordinates below 2^16, so no collisions on wide levels
+		return (this.x << 16) ^ this.y;
 	}
 }
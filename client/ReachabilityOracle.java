@@ -0,0 +1,250 @@
+package client;
+
+/**
+ * Connected components of the free cells of a World for O(1) reachability queries.
+ *
+ * Free cells are the cells without a wall or, unless boxes are ignored, a box. Every free cell
+ * has a component label and labels are merged with union-find. The labels for the walls only
+ * never change; the labels with boxes are kept up to date with the ChangeJournal of the world:
+ * a freed cell merges the components around it and a blocked cell only relabels its component
+ * if its free neighbours are not connected around it anymore.
+ *
+ * Like PathNode, the start and a box on the target never block. Agents are not considered.
+ */
+public class ReachabilityOracle {
+	private final World world;
+	private final boolean ignoreBoxes;
+
+	private final boolean[] blocked;
+	private final int[] label;
+	// Union-find over the labels, parent[l] == l for the root of a component
+	private final int[] parent;
+	private int labelCount;
+	private long journalVersion;
+
+	// Buffers for relabelling
+	private final int[] stamp;
+	private final int[] queue;
+	private int currentStamp = 0;
+
+	/**
+	 * @param world the world whose cells are labelled, it must have a ChangeJournal unless boxes are ignored.
+	 */
+	public ReachabilityOracle(World world, boolean ignoreBoxes) {
+		this.world = world;
+		this.ignoreBoxes = ignoreBoxes;
+
+		int size = world.getLevelSize();
+		blocked = new boolean[size];
+		label = new int[size];
+		parent = new int[size * 2];
+		stamp = new int[size];
+		queue = new int[size];
+		if (!ignoreBoxes) {
+			journalVersion = world.getChangeJournal().getVersion();
+		}
+		labelAll();
+	}
+
+	/**
+	 * True if the target can be reached from the start.
+	 */
+	public synchronized boolean isReachable(int startCell, int targetCell) {
+		if (startCell == targetCell) {
+			return true;
+		}
+		if (world.isWallAt(targetCell)) {
+			return false;
+		}
+		update();
+
+		int targetRoot = blocked[targetCell] ? -1 : find(label[targetCell]);
+		if (isConnectedTo(startCell, targetCell, targetRoot)) {
+			return true;
+		}
+		for (Command.dir dir : Command.dir.values()) {
+			int next = world.neighbourCell(startCell, dir);
+			if (next >= 0 && isConnectedTo(next, targetCell, targetRoot)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * True if the target is the cell or the cell is free and in the component of the target
+	 * or of a free neighbour of the target (for a box on the target).
+	 */
+	private boolean isConnectedTo(int cell, int targetCell, int targetRoot) {
+		if (cell == targetCell) {
+			return true;
+		}
+		if (blocked[cell]) {
+			return false;
+		}
+		int root = find(label[cell]);
+		if (targetRoot >= 0) {
+			return root == targetRoot;
+		}
+		for (Command.dir dir : Command.dir.values()) {
+			int next = world.neighbourCell(targetCell, dir);
+			if (next >= 0 && !blocked[next] && find(label[next]) == root) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Applies the cells changed since the last query.
+	 */
+	private void update() {
+		if (ignoreBoxes) {
+			return;
+		}
+		ChangeJournal journal = world.getChangeJournal();
+		int[] changes = journal.getChangesSince(journalVersion);
+		journalVersion = journal.getVersion();
+		if (changes == null) {
+			labelAll();
+			return;
+		}
+		for (int cell : changes) {
+			boolean nowBlocked = isBlockedInWorld(cell);
+			if (nowBlocked == blocked[cell]) {
+				continue;
+			}
+			if (labelCount + 4 >= parent.length) {
+				labelAll();
+				return;
+			}
+			if (nowBlocked) {
+				block(cell);
+			} else {
+				free(cell);
+			}
+		}
+	}
+
+	private void free(int cell) {
+		blocked[cell] = false;
+		int root = -1;
+		for (Command.dir dir : Command.dir.values()) {
+			int next = world.neighbourCell(cell, dir);
+			if (next < 0 || blocked[next]) {
+				continue;
+			}
+			int nextRoot = find(label[next]);
+			if (root < 0) {
+				root = nextRoot;
+			} else if (nextRoot != root) {
+				parent[nextRoot] = root;
+			}
+		}
+		if (root < 0) {
+			root = newLabel();
+		}
+		label[cell] = root;
+	}
+
+	private void block(int cell) {
+		blocked[cell] = true;
+		if (isSimpleCell(cell)) {
+			return;
+		}
+		// The component may fall apart, relabel it from each free neighbour
+		currentStamp++;
+		for (Command.dir dir : Command.dir.values()) {
+			int next = world.neighbourCell(cell, dir);
+			if (next >= 0 && !blocked[next] && stamp[next] != currentStamp) {
+				flood(next, newLabel());
+			}
+		}
+	}
+
+	/**
+	 * True if the free neighbours of the cell stay connected through the eight cells around it,
+	 * so blocking the cell doesn't split its component.
+	 */
+	private boolean isSimpleCell(int cell) {
+		// Ring around the cell: N, NE, E, SE, S, SW, W, NW
+		Command.dir[] sides = { Command.dir.N, Command.dir.E, Command.dir.S, Command.dir.W };
+		boolean[] ring = new boolean[8];
+		int freeNeighbours = 0;
+		for (int i = 0; i < 4; i++) {
+			int side = world.neighbourCell(cell, sides[i]);
+			ring[i * 2] = side >= 0 && !blocked[side];
+			if (ring[i * 2]) {
+				freeNeighbours++;
+				int corner = world.neighbourCell(side, sides[(i + 1) % 4]);
+				ring[i * 2 + 1] = corner >= 0 && !blocked[corner];
+			}
+		}
+		if (freeNeighbours <= 1) {
+			return true;
+		}
+		// A corner only counts if both its sides are free
+		for (int i = 0; i < 4; i++) {
+			ring[i * 2 + 1] = ring[i * 2 + 1] && ring[((i + 1) % 4) * 2];
+		}
+		// The free neighbours must be in one run of free ring cells
+		int runs = 0;
+		for (int i = 0; i < 8; i++) {
+			if (ring[i] && !ring[(i + 7) % 8]) {
+				runs++;
+			}
+		}
+		return runs <= 1;
+	}
+
+	private void labelAll() {
+		labelCount = 0;
+		for (int cell = 0; cell < blocked.length; cell++) {
+			blocked[cell] = isBlockedInWorld(cell);
+		}
+		currentStamp++;
+		for (int cell = 0; cell < blocked.length; cell++) {
+			if (!blocked[cell] && stamp[cell] != currentStamp) {
+				flood(cell, newLabel());
+			}
+		}
+	}
+
+	/**
+	 * Gives the label to all free cells connected to the cell, marking them with the current stamp.
+	 */
+	private void flood(int fromCell, int newLabel) {
+		int head = 0;
+		int tail = 0;
+		stamp[fromCell] = currentStamp;
+		queue[tail++] = fromCell;
+		while (head < tail) {
+			int cell = queue[head++];
+			label[cell] = newLabel;
+			for (Command.dir dir : Command.dir.values()) {
+				int next = world.neighbourCell(cell, dir);
+				if (next >= 0 && !blocked[next] && stamp[next] != currentStamp) {
+					stamp[next] = currentStamp;
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	private int newLabel() {
+		parent[labelCount] = labelCount;
+		return labelCount++;
+	}
+
+	private int find(int l) {
+		while (parent[l] != l) {
+			parent[l] = parent[parent[l]];
+			l = parent[l];
+		}
+		return l;
+	}
+
+	private boolean isBlockedInWorld(int cell) {
+		return world.isWallAt(cell) || (!ignoreBoxes && world.getBoxIndexAt(cell) >= 0);
+	}
+}
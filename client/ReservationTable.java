@@ -0,0 +1,136 @@
+package client;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import client.Client.Agent;
+import client.Command.type;
+
+/**
+ * Space-time reservations of the plans in a World for conflict checks.
+ *
+ * The plan of an agent is stamped once into a table of the cells it uses at every step: the
+ * agent before and after the step and the box it moves. A conflict check is then a lookup per
+ * step instead of walking both plans. Plans advance by polling their first command; as long as
+ * the agent follows its plan the stamps stay valid and only the offset into them moves.
+ * Stamps are redone when a plan is replaced, changed or the agent has left it.
+ */
+public class ReservationTable {
+	// Stamps per agent id, from the agent's position and from its position after its current command
+	private final Map<Integer, Stamp> stamps = new HashMap<Integer, Stamp>();
+	private final Map<Integer, Stamp> shiftedStamps = new HashMap<Integer, Stamp>();
+
+	/**
+	 * The cells used by a plan from a start position: three per step (agent before, agent after, box)
+	 * and the cell of the agent after the last step. Cells are packed points (see cellOf), so a
+	 * stale plan that leaves the level doesn't mix up cells.
+	 */
+	private static class Stamp {
+		LinkedList<Command> plan;
+		int length;
+		int[] cells;
+		int offset;
+
+		int getCell(int step, int which) {
+			int index = offset + step;
+			return index < length ? cells[index * 3 + which] : cells[length * 3];
+		}
+	}
+
+	/**
+	 * Drops the stamps of the agent, e.g. because it has a new plan.
+	 */
+	public void clear(int agentId) {
+		stamps.remove(agentId);
+		shiftedStamps.remove(agentId);
+	}
+
+	/**
+	 * True if the plan of the first agent conflicts with the plan of the second agent.
+	 *
+	 * If the second agent has a lower id it has already chosen its command in this round (its
+	 * new position), so its plan is shifted by one step.
+	 */
+	public boolean isConflict(Agent agent1, LinkedList<Command> plan1, Agent agent2, LinkedList<Command> plan2) {
+		Stamp own = getStamp(stamps, agent1.getId(), plan1, agent1.getPosition());
+		int length = plan1.size();
+		if (agent1.getId() > agent2.getId()) {
+			int position = cellOf(agent2.getPosition());
+			int newPosition = cellOf(agent2.getNewPosition());
+			if (length > 0 && overlaps(own, 0, position, newPosition, position)) {
+				return true;
+			}
+			Stamp other = getStamp(shiftedStamps, agent2.getId(), plan2, agent2.getNewPosition());
+			for (int i = 1; i < length; i++) {
+				if (overlaps(own, i, other.getCell(i - 1, 0), other.getCell(i - 1, 1), other.getCell(i - 1, 2))) {
+					return true;
+				}
+			}
+		} else {
+			Stamp other = getStamp(stamps, agent2.getId(), plan2, agent2.getPosition());
+			for (int i = 0; i < length; i++) {
+				if (overlaps(own, i, other.getCell(i, 0), other.getCell(i, 1), other.getCell(i, 2))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean overlaps(Stamp stamp, int step, int cell1, int cell2, int cell3) {
+		for (int which = 0; which < 3; which++) {
+			int cell = stamp.getCell(step, which);
+			if (cell == cell1 || cell == cell2 || cell == cell3) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The stamp of the plan from the start position, reusing the last one while the plan is only advanced.
+	 */
+	private Stamp getStamp(Map<Integer, Stamp> table, int agentId, LinkedList<Command> plan, Point start) {
+		Stamp stamp = table.get(agentId);
+		if (stamp != null && stamp.plan == plan) {
+			int advanced = stamp.length - plan.size();
+			if (advanced >= 0 && stamp.cells[advanced * 3] == cellOf(start)) {
+				stamp.offset = advanced;
+				return stamp;
+			}
+		}
+		stamp = stamp(plan, start);
+		table.put(agentId, stamp);
+		return stamp;
+	}
+
+	private static Stamp stamp(LinkedList<Command> plan, Point start) {
+		Stamp stamp = new Stamp();
+		stamp.plan = plan;
+		stamp.length = plan.size();
+		stamp.cells = new int[stamp.length * 3 + 1];
+
+		Point position = start;
+		int index = 0;
+		for (Command command : plan) {
+			Point newPosition = position.move(command.dir1);
+			Point boxPosition = position;
+			if (command.actType == type.Push) {
+				boxPosition = newPosition.move(command.dir2);
+			} else if (command.actType == type.Pull) {
+				boxPosition = position.move(command.dir2);
+			}
+			stamp.cells[index++] = cellOf(position);
+			stamp.cells[index++] = cellOf(newPosition);
+			stamp.cells[index++] = cellOf(boxPosition);
+			position = newPosition;
+		}
+		stamp.cells[index] = cellOf(position);
+		return stamp;
+	}
+
+	private static int cellOf(Point point) {
+		return (point.getY() << 16) + point.getX();
+	}
+}
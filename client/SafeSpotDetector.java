@@ -1,5 +1,6 @@
 package client;
 
+import java.util.BitSet;
 import java.util.LinkedList;
 import java.util.PriorityQueue;
 import java.util.Queue;
@@ -9,8 +10,21 @@ import client.Client.Agent;
 
 public class SafeSpotDetector {
 	public static PriorityQueue<SafePoint> detectSafeSpots(World world, int agentId) {
+		return detectSafeSpots(world, agentId, world.getAgent(agentId).getPosition());
+	}
+	
+	/**
+	 * The safe spots for the agent or a box it moves from the position. The cells are the ones
+	 * the agent could reach at the start of the level and the ones that can be reached from the
+	 * position now, both with the boxes and agents blocking. If there is no cell without a box
+	 * among them, the cells reachable around the walls are used, so there is always a spot.
+	 */
+	public static PriorityQueue<SafePoint> detectSafeSpots(World world, int agentId, Point position) {
 		PriorityQueue<SafePoint> safeSpots = new PriorityQueue<SafePoint>();
-		for(Point point : world.getRechableCells(agentId)) {
+		BitSet reachableCells = new ConnectedComponent(world).findCellsInConnectedComponent(position);
+		reachableCells.or(world.getRechableCells(agentId));
+		for(int cell = reachableCells.nextSetBit(0); cell >= 0; cell = reachableCells.nextSetBit(cell + 1)) {
+			Point point = world.cellToPoint(cell);
 			if(world.isGoalAt(point) || world.isBoxAt(point)) {
 				continue;
 			}
@@ -22,19 +36,30 @@ public class SafeSpotDetector {
 		}
 		
 		if(safeSpots.isEmpty()) {
-			for(Point point : world.getRechableCells(agentId)) {
-				if(world.isBoxAt(point)) {
-					continue;
-				}
-				SafePoint spoint = new SafePoint(point);
-				safeSpots.add(spoint);
-			}
+			addCellsWithoutBox(world, reachableCells, safeSpots);
 		}
 		
+		if(safeSpots.isEmpty()) {
+			// The boxes and agents can be moved out of the way
+			ConnectedComponent cc = new ConnectedComponent(world);
+			cc.isBoxBlocking = false;
+			cc.isAgentBlocking = false;
+			addCellsWithoutBox(world, cc.findCellsInConnectedComponent(position), safeSpots);
+		}
 		
 		return safeSpots;
 	}
 	
+	private static void addCellsWithoutBox(World world, BitSet cells, PriorityQueue<SafePoint> safeSpots) {
+		for(int cell = cells.nextSetBit(0); cell >= 0; cell = cells.nextSetBit(cell + 1)) {
+			Point point = world.cellToPoint(cell);
+			if(world.isBoxAt(point)) {
+				continue;
+			}
+			safeSpots.add(new SafePoint(point));
+		}
+	}
+	
 	public static Point getSafeSpotForAgent(World world, int agentId, Queue<Point> path) {
 		PriorityQueue<SafePoint> safeSpots = detectSafeSpots(world, agentId);
 
@@ -69,7 +94,7 @@ public class SafeSpotDetector {
 	public static Point getSafeSpotForBox(World world, Box box, Queue<Point> path) {
 		
 		Agent agent = world.getAgentToMoveBox(box);
-		PriorityQueue<SafePoint> safeSpots = detectSafeSpots(world, agent.getId());
+		PriorityQueue<SafePoint> safeSpots = detectSafeSpots(world, agent.getId(), box.getPosition());
 
 		//Logger.logLine("-----------  Safe spots ----------");
 		//for (SafePoint safespot : safeSpots) {
@@ -1,51 +1,165 @@
 package client.Search;
 
-import java.util.HashSet;
-import java.util.PriorityQueue;
+import java.util.Arrays;
+import java.util.HashMap;
 
 import client.Heuristic.Heuristic;
 
+/**
+ * Best-first search with an indexed binary heap as frontier.
+ * 
+ * Every node knows its slot in the heap and the frontier keeps an index from state to node,
+ * so membership tests are O(1) and a state that is rediscovered on a better path can be
+ * replaced in place (decrease-key) or taken back out of the explored set (reopen). A path is
+ * better if it has fewer steps and the heuristic ranks it first: the estimate of some nodes
+ * depends on their path (e.g. the blocked cells of a PathNode), so fewer steps alone may mean a
+ * larger evaluation.
+ * Nodes are ordered by the comparator of the heuristic, ties are broken as by java.util.PriorityQueue.
+ */
 public class BestFirstSearch {
-	private HashSet<SearchNode> explored;
+	private HashMap<SearchNode, SearchNode> explored;
 	private Heuristic heuristic;
-	private PriorityQueue<SearchNode> frontier;
+	private HashMap<SearchNode, SearchNode> frontierIndex;
+	private SearchNode[] frontier;
+	private int frontierSize;
 
 	public BestFirstSearch(Heuristic h) {
 		heuristic = h;
-		explored = new HashSet<SearchNode>();
-		frontier = new PriorityQueue<SearchNode>(h);
+		explored = new HashMap<SearchNode, SearchNode>();
+		frontierIndex = new HashMap<SearchNode, SearchNode>();
+		frontier = new SearchNode[64];
+		frontierSize = 0;
 	}
 
 	public void addToExplored(SearchNode n) {
-		explored.add(n);
+		explored.put(n, n);
 	}
 
 	public boolean isExplored(SearchNode n) {
-		return explored.contains(n);
+		return explored.containsKey(n);
 	}
 
 	public SearchNode getAndRemoveLeaf() {
-		return frontier.poll();
+		if (frontierSize == 0)
+			return null;
+		SearchNode result = frontier[0];
+		int last = --frontierSize;
+		SearchNode x = frontier[last];
+		frontier[last] = null;
+		if (last > 0)
+			siftDown(0, x);
+		frontierIndex.remove(result);
+		result.frontierPosition = -1;
+		return result;
 	}
 
+	/**
+	 * Adds the node to the frontier. If the same state is already in the frontier on a worse path,
+	 * that node is replaced; if it has already been explored on a worse path, it is reopened.
+	 * Nodes that are not better than a known node for the same state are ignored.
+	 */
 	public void addToFrontier(SearchNode n) {
-		frontier.add(n);
+		SearchNode old = frontierIndex.get(n);
+		if (old != null) {
+			if (isBetter(n, old)) {
+				int k = old.frontierPosition;
+				old.frontierPosition = -1;
+				frontierIndex.put(n, n);
+				// The evaluation may be larger or smaller than that of the replaced node
+				siftUp(k, n);
+				if (n.frontierPosition == k)
+					siftDown(k, n);
+			}
+			return;
+		}
+
+		old = explored.get(n);
+		if (old != null) {
+			if (!isBetter(n, old))
+				return;
+			explored.remove(old);
+		}
+
+		if (frontierSize == frontier.length)
+			frontier = Arrays.copyOf(frontier, frontierSize * 2);
+		evaluate(n);
+		frontierIndex.put(n, n);
+		siftUp(frontierSize++, n);
+	}
+
+	/**
+	 * Returns true if the state of the node is unknown or known only with more steps, i.e.
+	 * addToFrontier may add the node. Cheap pre-check, the node is not evaluated.
+	 */
+	public boolean isNewOrCheaper(SearchNode n) {
+		SearchNode old = frontierIndex.get(n);
+		if (old == null)
+			old = explored.get(n);
+		return old == null || n.getStepCount() < old.getStepCount();
 	}
 
 	public int countFrontier() {
-		return frontier.size();
+		return frontierSize;
 	}
 
 	public boolean frontierIsEmpty() {
-		return frontier.isEmpty();
+		return frontierSize == 0;
 	}
 
 	public boolean inFrontier(SearchNode n) {
-		return frontier.contains(n);
+		return frontierIndex.containsKey(n);
+	}
+
+	private void evaluate(SearchNode n) {
+		if (!n.isEvaluated())
+			heuristic.evaluate(n);
+	}
+
+	/**
+	 * True if the node reaches the state of the known node with fewer steps and is ranked before it.
+	 */
+	private boolean isBetter(SearchNode n, SearchNode known) {
+		if (n.getStepCount() >= known.getStepCount())
+			return false;
+		evaluate(n);
+		return heuristic.compare(n, known) < 0;
+	}
+
+	private void siftUp(int k, SearchNode x) {
+		while (k > 0) {
+			int parent = (k - 1) >>> 1;
+			SearchNode e = frontier[parent];
+			if (heuristic.compare(x, e) >= 0)
+				break;
+			place(k, e);
+			k = parent;
+		}
+		place(k, x);
+	}
+
+	private void siftDown(int k, SearchNode x) {
+		int half = frontierSize >>> 1;
+		while (k < half) {
+			int child = (k << 1) + 1;
+			SearchNode c = frontier[child];
+			int right = child + 1;
+			if (right < frontierSize && heuristic.compare(c, frontier[right]) > 0)
+				c = frontier[child = right];
+			if (heuristic.compare(x, c) <= 0)
+				break;
+			place(k, c);
+			k = child;
+		}
+		place(k, x);
+	}
+
+	private void place(int k, SearchNode n) {
+		frontier[k] = n;
+		n.frontierPosition = k;
 	}
 
 	public String toString() {
-		return "Best-first Search (PriorityQueue) using "
+		return "Best-first Search (indexed binary heap) using "
 				+ heuristic.toString();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,304 @@
+package client.Search;
+
+import java.util.LinkedList;
+
+import client.ChangeJournal;
+import client.Command;
+import client.Point;
+import client.World;
+
+/**
+ * Incremental shortest path search of an agent to a fixed target cell (D* Lite).
+ *
+ * The search runs backwards from the target, so its distances stay valid while the agent moves.
+ * When boxes or agents move, only the cells reported by the ChangeJournal of the world are
+ * updated and the search is repaired from there instead of starting over.
+ *
+ * The costs follow PathNode: boxes block every cell but the target and other agents can be
+ * passed at the same penalty as in HeuristicPathFunction. Like PathNode, a path that runs into
+ * another agent within the first steps is not valid; findPath returns null for it.
+ */
+public class DStarLite {
+	private static final int INFINITY = Integer.MAX_VALUE / 4;
+	private static final int AGENT_PENALTY = 3;
+	// PathNode only passes other agents after 10 steps
+	private static final int AGENT_FREE_STEPS = 11;
+	private static final Command.dir[] DIRECTIONS = Command.dir.values();
+
+	private final World world;
+	private final int agentId;
+	private final int targetCell;
+
+	private final int[] g;
+	private final int[] rhs;
+	private final int[] cost;
+
+	// Indexed binary heap of the inconsistent cells ordered by (key1, key2)
+	private final int[] heap;
+	private final int[] heapIndex;
+	private final int[] key1;
+	private final int[] key2;
+	private int heapSize = 0;
+
+	private int keyModifier = 0;
+	private int startCell;
+	private long journalVersion;
+
+	/**
+	 * @param world the world of the client, it must have a ChangeJournal.
+	 */
+	public DStarLite(World world, int agentId, Point target) {
+		this.world = world;
+		this.agentId = agentId;
+		this.targetCell = world.cellIndex(target);
+
+		int size = world.getLevelSize();
+		g = new int[size];
+		rhs = new int[size];
+		cost = new int[size];
+		heap = new int[size];
+		heapIndex = new int[size];
+		key1 = new int[size];
+		key2 = new int[size];
+		for (int cell = 0; cell < size; cell++) {
+			g[cell] = INFINITY;
+			rhs[cell] = INFINITY;
+			heapIndex[cell] = -1;
+			cost[cell] = cellCost(cell);
+		}
+
+		startCell = world.cellIndex(world.getAgent(agentId).getPosition());
+		journalVersion = world.getChangeJournal().getVersion();
+		rhs[targetCell] = 0;
+		updateHeap(targetCell);
+	}
+
+	public int getTargetCell() {
+		return targetCell;
+	}
+
+	/**
+	 * True if the changes of the world since the last search are still known, so the search can be repaired.
+	 */
+	public boolean canRepair() {
+		return world.getChangeJournal().getChangesSince(journalVersion) != null;
+	}
+
+	/**
+	 * Repairs the search for the changes of the world since the last call and extracts the path
+	 * from the current position of the agent.
+	 *
+	 * @return the moves to the target or null if there is no valid path.
+	 */
+	public LinkedList<Command> findPath() {
+		ChangeJournal journal = world.getChangeJournal();
+		int[] changes = journal.getChangesSince(journalVersion);
+		if (changes == null) {
+			throw new RuntimeException("DStarLite: the changes of the world are no longer known");
+		}
+		journalVersion = journal.getVersion();
+
+		int newStart = world.cellIndex(world.getAgent(agentId).getPosition());
+		if (newStart != startCell) {
+			keyModifier += heuristic(startCell, newStart);
+			startCell = newStart;
+		}
+
+		for (int cell : changes) {
+			int newCost = cellCost(cell);
+			if (newCost != cost[cell]) {
+				cost[cell] = newCost;
+				for (Command.dir dir : DIRECTIONS) {
+					int neighbour = world.neighbourCell(cell, dir);
+					if (neighbour >= 0) {
+						updateVertex(neighbour);
+					}
+				}
+			}
+		}
+
+		computeShortestPath();
+		return extractPath();
+	}
+
+	private LinkedList<Command> extractPath() {
+		if (g[startCell] >= INFINITY) {
+			return null;
+		}
+		LinkedList<Command> commands = new LinkedList<Command>();
+		int cell = startCell;
+		while (cell != targetCell) {
+			Command.dir bestDir = null;
+			int bestCell = -1;
+			int best = INFINITY;
+			for (Command.dir dir : DIRECTIONS) {
+				int next = world.neighbourCell(cell, dir);
+				if (next >= 0 && add(cost[next], g[next]) < best) {
+					best = add(cost[next], g[next]);
+					bestDir = dir;
+					bestCell = next;
+				}
+			}
+			if (bestDir == null || commands.size() >= g.length) {
+				return null;
+			}
+			if (commands.size() < AGENT_FREE_STEPS && cost[bestCell] > 1 && bestCell != targetCell) {
+				return null;
+			}
+			commands.add(Command.move(bestDir));
+			cell = bestCell;
+		}
+		return commands;
+	}
+
+	private void computeShortestPath() {
+		while (heapSize > 0 && (compareKeys(heap[0], calculateKey1(startCell), calculateKey2(startCell)) < 0
+				|| rhs[startCell] != g[startCell])) {
+			int u = heap[0];
+			int newKey1 = calculateKey1(u);
+			int newKey2 = calculateKey2(u);
+			if (compareKeys(u, newKey1, newKey2) < 0) {
+				key1[u] = newKey1;
+				key2[u] = newKey2;
+				siftDown(0);
+			} else if (g[u] > rhs[u]) {
+				g[u] = rhs[u];
+				removeFromHeap(u);
+				updateNeighbours(u);
+			} else {
+				g[u] = INFINITY;
+				updateVertex(u);
+				updateNeighbours(u);
+			}
+		}
+	}
+
+	private void updateNeighbours(int cell) {
+		for (Command.dir dir : DIRECTIONS) {
+			int neighbour = world.neighbourCell(cell, dir);
+			if (neighbour >= 0) {
+				updateVertex(neighbour);
+			}
+		}
+	}
+
+	private void updateVertex(int cell) {
+		if (cell != targetCell) {
+			int best = INFINITY;
+			for (Command.dir dir : DIRECTIONS) {
+				int next = world.neighbourCell(cell, dir);
+				if (next >= 0) {
+					best = Math.min(best, add(cost[next], g[next]));
+				}
+			}
+			rhs[cell] = best;
+		}
+		updateHeap(cell);
+	}
+
+	private void updateHeap(int cell) {
+		if (g[cell] != rhs[cell]) {
+			key1[cell] = calculateKey1(cell);
+			key2[cell] = calculateKey2(cell);
+			if (heapIndex[cell] < 0) {
+				heap[heapSize] = cell;
+				heapIndex[cell] = heapSize;
+				heapSize++;
+			}
+			siftDown(siftUp(heapIndex[cell]));
+		} else if (heapIndex[cell] >= 0) {
+			removeFromHeap(cell);
+		}
+	}
+
+	private int cellCost(int cell) {
+		if (world.isWallAt(cell)) {
+			return INFINITY;
+		}
+		if (cell != targetCell && world.getBoxIndexAt(cell) >= 0) {
+			return INFINITY;
+		}
+		int agentIndex = world.getAgentIndexAt(cell);
+		if (agentIndex >= 0 && world.getAgents().get(agentIndex).getId() != agentId) {
+			return 1 + AGENT_PENALTY;
+		}
+		return 1;
+	}
+
+	/**
+	 * The distance table of the second cell is used, keep it the start cell to avoid a table per visited cell.
+	 */
+	private int heuristic(int from, int to) {
+		return world.getDistance(from, to);
+	}
+
+	private int calculateKey1(int cell) {
+		return add(Math.min(g[cell], rhs[cell]), heuristic(cell, startCell) + keyModifier);
+	}
+
+	private int calculateKey2(int cell) {
+		return Math.min(g[cell], rhs[cell]);
+	}
+
+	private static int add(int a, int b) {
+		return a >= INFINITY || b >= INFINITY ? INFINITY : a + b;
+	}
+
+	/**
+	 * Compares the key of the cell with the given key.
+	 */
+	private int compareKeys(int cell, int otherKey1, int otherKey2) {
+		if (key1[cell] != otherKey1) {
+			return key1[cell] < otherKey1 ? -1 : 1;
+		}
+		return Integer.compare(key2[cell], otherKey2);
+	}
+
+	private boolean isBefore(int a, int b) {
+		return compareKeys(a, key1[b], key2[b]) < 0;
+	}
+
+	private void removeFromHeap(int cell) {
+		int index = heapIndex[cell];
+		heapIndex[cell] = -1;
+		heapSize--;
+		if (index < heapSize) {
+			place(heap[heapSize], index);
+			siftDown(siftUp(index));
+		}
+	}
+
+	private int siftUp(int index) {
+		int cell = heap[index];
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (!isBefore(cell, heap[parent]))
+				break;
+			place(heap[parent], index);
+			index = parent;
+		}
+		place(cell, index);
+		return index;
+	}
+
+	private void siftDown(int index) {
+		int cell = heap[index];
+		int half = heapSize >>> 1;
+		while (index < half) {
+			int child = 2 * index + 1;
+			int right = child + 1;
+			if (right < heapSize && isBefore(heap[right], heap[child]))
+				child = right;
+			if (!isBefore(heap[child], cell))
+				break;
+			place(heap[child], index);
+			index = child;
+		}
+		place(cell, index);
+	}
+
+	private void place(int cell, int index) {
+		heap[index] = cell;
+		heapIndex[cell] = index;
+	}
+}
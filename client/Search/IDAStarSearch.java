@@ -0,0 +1,136 @@
+package client.Search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import client.Command;
+import client.Goal;
+import client.MoveBoxSubIntention;
+import client.World;
+import client.Client.Agent;
+import client.Heuristic.HeuristicPlannerFunction;
+
+/**
+ * Iterative deepening A* for a MoveBoxSubIntention.
+ *
+ * The search works on a single World: every command is applied with World.update and reverted
+ * with World.undo when backtracking, so memory only grows with the depth of the plan.
+ * A small direct-mapped transposition table on the Zobrist hash of the world cuts off states that
+ * have already been reached with fewer or equal steps in the current iteration.
+ */
+public class IDAStarSearch {
+	private static final int TABLE_SIZE = 1 << 16;
+	private static final int FOUND = -1;
+	private static final int NOT_FOUND = Integer.MAX_VALUE;
+
+	private final World world;
+	private final Agent agent;
+	private final MoveBoxSubIntention intention;
+	private final HeuristicPlannerFunction function;
+	private final List<Goal> protectedGoals;
+	private final int nodeBudget;
+	private final int endCell;
+
+	private final long[] tableHashes = new long[TABLE_SIZE];
+	private final int[] tableSteps = new int[TABLE_SIZE];
+	private final ArrayList<Command> path = new ArrayList<Command>();
+	private int expandedNodes = 0;
+
+	/**
+	 * @param world the world to search in. It is changed during the search, so pass a copy.
+	 * @param protectedGoals completed goals that must not be destroyed by the plan.
+	 * @param nodeBudget the maximal number of expanded nodes over all iterations.
+	 */
+	public IDAStarSearch(World world, int agentId, MoveBoxSubIntention intention, HeuristicPlannerFunction function,
+			List<Goal> protectedGoals, int nodeBudget) {
+		this.world = world;
+		this.agent = world.getAgent(agentId);
+		this.intention = intention;
+		this.function = function;
+		this.protectedGoals = protectedGoals;
+		this.nodeBudget = nodeBudget;
+		this.endCell = world.cellIndex(intention.getEndPosition());
+	}
+
+	/**
+	 * @return the commands that complete the intention or null if none has been found within the budget.
+	 */
+	public LinkedList<Command> search() {
+		int threshold = function.heuristic(world);
+		while (true) {
+			Arrays.fill(tableSteps, Integer.MAX_VALUE);
+			int result = depthFirstSearch(0, threshold);
+			if (result == FOUND) {
+				return new LinkedList<Command>(path);
+			}
+			if (result == NOT_FOUND || expandedNodes > nodeBudget || Thread.currentThread().isInterrupted()) {
+				return null;
+			}
+			threshold = result;
+		}
+	}
+
+	public int getExpandedNodes() {
+		return expandedNodes;
+	}
+
+	/**
+	 * @return FOUND, NOT_FOUND or the smallest f-value above the threshold.
+	 */
+	private int depthFirstSearch(int steps, int threshold) {
+		int f = steps + function.heuristic(world);
+		if (f > threshold) {
+			return f;
+		}
+		if (isCompleted()) {
+			return FOUND;
+		}
+		if (++expandedNodes > nodeBudget || Thread.currentThread().isInterrupted()) {
+			return NOT_FOUND;
+		}
+
+		long hash = world.getZobristHash();
+		int slot = (int) (hash ^ (hash >>> 32)) & (TABLE_SIZE - 1);
+		if (tableHashes[slot] == hash && tableSteps[slot] <= steps) {
+			return NOT_FOUND;
+		}
+		tableHashes[slot] = hash;
+		tableSteps[slot] = steps;
+
+		int min = NOT_FOUND;
+		for (Command command : Command.every) {
+			if (!world.update(agent, command)) {
+				continue;
+			}
+			if (!isPruned()) {
+				path.add(command);
+				int result = depthFirstSearch(steps + 1, threshold);
+				if (result == FOUND) {
+					return FOUND;
+				}
+				path.remove(path.size() - 1);
+				min = Math.min(min, result);
+			}
+			world.undo(agent, command);
+		}
+		return min;
+	}
+
+	private boolean isCompleted() {
+		return world.cellIndex(world.getBoxById(intention.getBox().getId()).getPosition()) == endCell;
+	}
+
+	private boolean isPruned() {
+		if (function.isHopeless(world)) {
+			return true;
+		}
+		for (Goal goal : protectedGoals) {
+			if (!world.isGoalCompleted(goal)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
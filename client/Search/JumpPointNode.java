@@ -0,0 +1,179 @@
+package client.Search;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import client.Command;
+import client.World;
+
+/**
+ * Node of a Jump Point Search on the 4-connected grid.
+ *
+ * Instead of one cell per node, a node jumps in a straight line to the next cell where the path
+ * may have to turn: the target, a cell next to the end of an obstacle (a forced neighbour) or,
+ * when moving vertically, a cell from which a horizontal jump finds such a cell. Symmetric paths
+ * through open areas are skipped, the step count of a node is the number of moves to it.
+ *
+ * Cells are blocked as in PathNode: walls, boxes other than on the target (unless ignoreBoxes)
+ * and other agents (unless ignoreAgents) while they would be entered within the first 11 steps.
+ */
+public class JumpPointNode extends SearchNode {
+	// PathNode only passes other agents after 10 steps
+	private static final int AGENT_FREE_STEPS = 11;
+
+	private int cell;
+	private int targetCell;
+	private boolean ignoreBoxes;
+	private boolean ignoreAgents;
+	private int movingAgentId;
+	private Command.dir direction;   // direction of the jump to this node, null for the start
+	private int jumpLength;
+
+	public JumpPointNode(World world, int cell, int targetCell, boolean ignoreBoxes, boolean ignoreAgents, int movingAgentId) {
+		super(world);
+		this.cell = cell;
+		this.targetCell = targetCell;
+		this.ignoreBoxes = ignoreBoxes;
+		this.ignoreAgents = ignoreAgents;
+		this.movingAgentId = movingAgentId;
+	}
+
+	JumpPointNode(World world, JumpPointNode parentNode, Command.dir direction, int cell, int jumpLength) {
+		super(world, parentNode, Command.move(direction));
+		this.stepCount = parentNode.stepCount + jumpLength;
+
+		this.cell = cell;
+		this.targetCell = parentNode.targetCell;
+		this.ignoreBoxes = parentNode.ignoreBoxes;
+		this.ignoreAgents = parentNode.ignoreAgents;
+		this.movingAgentId = parentNode.movingAgentId;
+		this.direction = direction;
+		this.jumpLength = jumpLength;
+	}
+
+	public ArrayList<SearchNode> getExpandedNodes() {
+		ArrayList<SearchNode> expandedNodes = new ArrayList<SearchNode>();
+		for (Command.dir dir : Command.dir.values()) {
+			// Going back is never shorter
+			if (direction != null && dir == Command.opposite(direction)) {
+				continue;
+			}
+			int jumpPoint = jump(cell, dir, stepCount);
+			if (jumpPoint >= 0) {
+				expandedNodes.add(new JumpPointNode(world, this, dir, jumpPoint, distance(cell, jumpPoint)));
+			}
+		}
+		return expandedNodes;
+	}
+
+	/**
+	 * Moves from the cell in the direction until a jump point is found.
+	 *
+	 * @param step the number of moves to the cell.
+	 * @return the jump point or -1 if the way is blocked before one is found.
+	 */
+	private int jump(int cell, Command.dir dir, int step) {
+		boolean horizontal = dir == Command.dir.W || dir == Command.dir.E;
+		Command.dir side1 = horizontal ? Command.dir.N : Command.dir.W;
+		Command.dir side2 = horizontal ? Command.dir.S : Command.dir.E;
+
+		int current = cell;
+		while (true) {
+			int next = world.neighbourCell(current, dir);
+			step++;
+			if (next < 0 || isBlocked(next, step)) {
+				return -1;
+			}
+			if (next == targetCell) {
+				return next;
+			}
+			if (isForced(current, next, side1, step) || isForced(current, next, side2, step)) {
+				return next;
+			}
+			if (!horizontal && (jump(next, side1, step) >= 0 || jump(next, side2, step) >= 0)) {
+				return next;
+			}
+			current = next;
+		}
+	}
+
+	/**
+	 * True if the side of the cell is open while the same side of the previous cell is blocked,
+	 * so a shortest path may turn here.
+	 */
+	private boolean isForced(int previous, int cell, Command.dir side, int step) {
+		int sideCell = world.neighbourCell(cell, side);
+		if (sideCell < 0 || isBlocked(sideCell, step + 1)) {
+			return false;
+		}
+		int behind = world.neighbourCell(previous, side);
+		return behind < 0 || isBlocked(behind, step);
+	}
+
+	/**
+	 * True if the cell can't be entered with the given move.
+	 */
+	private boolean isBlocked(int cell, int step) {
+		if (world.isWallAt(cell)) {
+			return true;
+		}
+		if (!ignoreAgents && step <= AGENT_FREE_STEPS) {
+			int agentIndex = world.getAgentIndexAt(cell);
+			if (agentIndex >= 0 && world.getAgents().get(agentIndex).getId() != movingAgentId) {
+				return true;
+			}
+		}
+		return !ignoreBoxes && cell != targetCell && world.getBoxIndexAt(cell) >= 0;
+	}
+
+	private int distance(int from, int to) {
+		int width = world.getWidth();
+		return Math.abs(from % width - to % width) + Math.abs(from / width - to / width);
+	}
+
+	/**
+	 * The single moves from the start, each jump is repeated for its length.
+	 */
+	public Queue<Command> extractListOfCommands() {
+		LinkedList<Command> queue = new LinkedList<Command>();
+
+		JumpPointNode node = this;
+		while (node != null && node.command != null) {
+			for (int i = 0; i < node.jumpLength; i++) {
+				queue.add(0, node.command);
+			}
+			node = (JumpPointNode) node.previousNode;
+		}
+		return queue;
+	}
+
+	public int getCell() {
+		return cell;
+	}
+
+	public int getTargetCell() {
+		return targetCell;
+	}
+
+	public boolean isAtTarget() {
+		return cell == targetCell;
+	}
+
+	@Override
+	public int hashCode() {
+		return this.cell;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		JumpPointNode other = (JumpPointNode) obj;
+		return this.cell == other.cell;
+	}
+}
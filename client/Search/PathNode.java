@@ -8,40 +8,48 @@ import client.Command;
 import client.Point;
 import client.World;
 
+/**
+ * Node of a path search. Positions are kept as cell indices of the world,
+ * Points are only created at the edges (getPosition, extractListOfPossitions).
+ */
 public class PathNode extends SearchNode {
-	private Point position;
-	private Point targetPosition;
+	private int cell;
+	private int targetCell;
 	private boolean ignoreBoxes;
 	private boolean ignoreAgents;
 	private int movingAgentId;
+	private int blockedCells;   // cells on the path from the start that are not free
 	
 	public PathNode(World world, Point position, Point targetPosition, boolean ignoreBoxes, boolean ignoreAgents, int movingAgentId) {
 		super(world);
-		this.position = position;
-		this.targetPosition = targetPosition;
+		this.cell = world.cellIndex(position);
+		this.targetCell = world.cellIndex(targetPosition);
 		this.ignoreBoxes = ignoreBoxes;
 		this.ignoreAgents = ignoreAgents;
 		this.movingAgentId = movingAgentId;
+		this.blockedCells = world.isFreeCell(position) ? 0 : 1;
 	}
 	
-	PathNode(World world, PathNode parentNode, Command command, Point position) {
+	PathNode(World world, PathNode parentNode, Command command, int cell) {
 		super(world, parentNode, command);
 
-		this.position = position;
-		this.targetPosition = parentNode.targetPosition;
+		this.cell = cell;
+		this.targetCell = parentNode.targetCell;
 		this.ignoreBoxes = parentNode.ignoreBoxes;
 		this.ignoreAgents = parentNode.ignoreAgents;
 		this.movingAgentId = parentNode.movingAgentId;
+		this.blockedCells = parentNode.blockedCells + (world.isFreeCell(cell) ? 0 : 1);
 	}
 		
 	public ArrayList< SearchNode > getExpandedNodes() {
 		ArrayList< SearchNode > expandedNodes = new ArrayList< SearchNode >();
 		for ( Command.dir dir : Command.dir.values() ) {
-			Point newPos = position.move(dir);
-			if(!world.isWallAt(newPos)) {	
-				if(stepCount > 10 || ignoreAgents || (world.getAgentAt(newPos) == null) || (world.getAgentAt(newPos).getId() == movingAgentId)) {
-					if(ignoreBoxes || !world.isBoxAt(newPos) || newPos.equals(targetPosition)) {
-					  expandedNodes.add( new PathNode(world, this, new Command(dir), newPos) );
+			int newCell = world.neighbourCell(cell, dir);
+			if(newCell >= 0 && !world.isWallAt(newCell)) {
+				int agentIndex = world.getAgentIndexAt(newCell);
+				if(stepCount > 10 || ignoreAgents || agentIndex < 0 || world.getAgents().get(agentIndex).getId() == movingAgentId) {
+					if(ignoreBoxes || world.getBoxIndexAt(newCell) < 0 || newCell == targetCell) {
+					  expandedNodes.add( new PathNode(world, this, Command.move(dir), newCell) );
 					}
 				}
 			}
@@ -53,7 +61,7 @@ public class PathNode extends SearchNode {
 		LinkedList<Point> queue = new LinkedList<Point>();
 
 		PathNode node = this;
-		while(node != null && node.getPosition() != null) {
+		while(node != null) {
 			queue.add(0, node.getPosition());
 			node = (PathNode)node.previousNode;
 		}
@@ -72,12 +80,28 @@ public class PathNode extends SearchNode {
 	}
 	
 	public Point getPosition() {
-		return position;
+		return world.cellToPoint(cell);
+	}
+	
+	public int getCell() {
+		return cell;
+	}
+	
+	public boolean isAt(Point position) {
+		return cell == world.cellIndex(position);
+	}
+	
+	public boolean isAtTarget() {
+		return cell == targetCell;
+	}
+	
+	public int getBlockedCells() {
+		return blockedCells;
 	}
 	
 	@Override
 	public int hashCode() {
-		return this.position.hashCode();
+		return this.cell;
 	}
 	
 	@Override
@@ -89,6 +113,6 @@ public class PathNode extends SearchNode {
 		if ( getClass() != obj.getClass() )
 			return false;
 		PathNode other = (PathNode) obj;
-		return this.position.equals(other.position);
+		return this.cell == other.cell;
 	}	
 }
@@ -9,31 +9,49 @@ import client.World;
 
 public class PlannerNode extends SearchNode {
 	private int agentId;
+	private PlannerState state;
 	
 	public PlannerNode(World world, int agentId) {
 		super(world);
 		this.agentId = agentId;
+		this.state = new PlannerState(new PlannerState.Context(world, agentId));
 	}
 	
-	PlannerNode(World world, PlannerNode parentNode, Command command, int agentId) {
-		super(world, parentNode, command);
+	PlannerNode(PlannerState state, PlannerNode parentNode, Command command, int agentId) {
+		super(parentNode.world, parentNode, command);
 		this.agentId = agentId;
+		this.state = state;
 	}
 	
 	public ArrayList< SearchNode > getExpandedNodes() {
 		ArrayList< SearchNode > expandedNodes = new ArrayList< SearchNode >( Command.every.length );
+		PlannerState.Context context = state.getContext();
+		context.stamp(state);
 		for ( Command c : Command.every ) {
-			World newWorld = new World(world);
-			boolean validCommand = newWorld.update(newWorld.getAgent(agentId), c);
+			PlannerState newState = state.apply(c);
 			
-			if(validCommand) {
-				PlannerNode node = new PlannerNode(newWorld, this, c, agentId);								
+			if(newState != null && !state.isDeadlock(c, newState)) {
+				PlannerNode node = new PlannerNode(newState, this, c, agentId);								
 				expandedNodes.add( node );
 			}
 		}
+		context.clear(state);
 		return expandedNodes;
 	}
 	
+	public PlannerState getState() {
+		return state;
+	}
+	
+	/**
+	 * The world in the state of this node. It is created on every call, 
+	 * use getState() for anything performance critical.
+	 */
+	@Override
+	public World getWorld() {
+		return state.toWorld();
+	}
+	
 	public Queue<Command> extractListOfCommands() {
 		LinkedList<Command> queue = new LinkedList<Command>();
 
@@ -47,7 +65,7 @@ public class PlannerNode extends SearchNode {
 	
 	@Override
 	public int hashCode() {
-		return this.world.hashCode();
+		return this.state.hashCode();
 	}
 
 	@Override
@@ -59,6 +77,11 @@ public class PlannerNode extends SearchNode {
 		if ( getClass() != obj.getClass() )
 			return false;
 		PlannerNode other = (PlannerNode) obj;
-		return this.world.equals(other.world);
+		return this.state.equals(other.state);
+	}
+	
+	@Override
+	public String toString() {
+		return state.toString() + "  Command: " + command;
 	}
 }
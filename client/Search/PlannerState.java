@@ -0,0 +1,376 @@
+package client.Search;
+
+import java.util.Arrays;
+import java.util.List;
+
+import client.Box;
+import client.Command;
+import client.Goal;
+import client.World;
+import client.Zobrist;
+import client.Client.Agent;
+
+/**
+ * Compact search state for the box planner.
+ *
+ * Only the cells of the planning agent (slot 0) and of the boxes it is able to move (slot 1..n)
+ * are stored. Walls, goals, other agents and all other boxes are read from the world the
+ * search has been started in, which is shared by all states of the search.
+ */
+public class PlannerState {
+
+	/**
+	 * Data shared by all states of one search.
+	 */
+	public static class Context {
+		private final World world;
+		private final int agentId;
+		private final int[] slotBoxIndex;   // box index in world.getBoxes() per slot (slot 0 is the agent)
+		private final int[] slotBoxId;
+		private final int[] boxIdSlot;      // slot per box id or 0 if the box can't be moved
+		private final char[] slotLetter;
+		private final boolean[] slotNeeded;  // every box with the letter of the slot is needed for a goal
+		private final boolean[] blocked;    // walls and objects the agent can't move
+		private final int[] occupant;       // slot + 1 per cell, only filled during an expansion
+		private final int[] visited;        // scratch marks for the freeze check
+		private int visitStamp = 0;
+
+		public Context(World world, int agentId) {
+			this.world = world;
+			this.agentId = agentId;
+
+			Agent agent = world.getAgent(agentId);
+			List<Box> boxes = world.getBoxes();
+			int movableBoxes = 0;
+			int maxBoxId = 0;
+			for (Box box : boxes) {
+				if (box.getColor().equals(agent.getColor()))
+					movableBoxes++;
+				maxBoxId = Math.max(maxBoxId, box.getId());
+			}
+
+			slotBoxIndex = new int[movableBoxes + 1];
+			slotBoxId = new int[movableBoxes + 1];
+			slotLetter = new char[movableBoxes + 1];
+			slotNeeded = new boolean[movableBoxes + 1];
+			boxIdSlot = new int[maxBoxId + 1];
+			slotBoxIndex[0] = -1;
+			slotBoxId[0] = -1;
+			int slot = 1;
+			for (int i = 0; i < boxes.size(); i++) {
+				Box box = boxes.get(i);
+				if (box.getColor().equals(agent.getColor())) {
+					slotBoxIndex[slot] = i;
+					slotBoxId[slot] = box.getId();
+					slotLetter[slot] = box.getLetter();
+					slotNeeded[slot] = world.isEveryBoxNeeded(box.getLetter());
+					boxIdSlot[box.getId()] = slot;
+					slot++;
+				}
+			}
+
+			blocked = new boolean[world.getLevelSize()];
+			occupant = new int[world.getLevelSize()];
+			visited = new int[world.getLevelSize()];
+			for (int cell = 0; cell < blocked.length; cell++) {
+				if (world.isWallAt(cell)) {
+					blocked[cell] = true;
+					continue;
+				}
+				int boxIndex = world.getBoxIndexAt(cell);
+				if (boxIndex >= 0 && boxIdSlot[boxes.get(boxIndex).getId()] == 0) {
+					blocked[cell] = true;
+				}
+				int agentIndex = world.getAgentIndexAt(cell);
+				if (agentIndex >= 0 && world.getAgents().get(agentIndex).getId() != agentId) {
+					blocked[cell] = true;
+				}
+			}
+		}
+
+		public World getWorld() {
+			return world;
+		}
+
+		public int getAgentId() {
+			return agentId;
+		}
+
+		/**
+		 * Puts the objects of the state on the occupancy grid. Must be followed by clear(state).
+		 */
+		void stamp(PlannerState state) {
+			for (int slot = 0; slot < state.cells.length; slot++) {
+				occupant[state.cells[slot]] = slot + 1;
+			}
+		}
+
+		void clear(PlannerState state) {
+			for (int slot = 0; slot < state.cells.length; slot++) {
+				occupant[state.cells[slot]] = 0;
+			}
+		}
+
+		private boolean isFreeCell(int cell) {
+			return cell >= 0 && !blocked[cell] && occupant[cell] == 0;
+		}
+
+		/**
+		 * True if the box on the cell can never be moved again by pushes or pulls. Only walls and
+		 * the boxes of the planning agent are taken into account, boxes that are being checked count as walls.
+		 */
+		private boolean isFrozen(int cell) {
+			visited[cell] = visitStamp;
+			int openSide = -1;
+			int openSides = 0;
+			for (Command.dir dir : Command.dir.values()) {
+				int next = world.neighbourCell(cell, dir);
+				if (isStaticBlocked(next))
+					continue;
+				if (occupant[next] > 1 && (visited[next] == visitStamp || isFrozen(next)))
+					continue;
+				openSide = next;
+				openSides++;
+			}
+			if (openSides >= 2)
+				return false;
+			if (openSides == 0)
+				return true;
+			// Only a pull towards the open side: the agent needs a cell to step back to
+			for (Command.dir dir : Command.dir.values()) {
+				int next = world.neighbourCell(openSide, dir);
+				if (next != cell && !isStaticBlocked(next))
+					return false;
+			}
+			return true;
+		}
+
+		private boolean isStaticBlocked(int cell) {
+			return cell < 0 || world.isWallAt(cell);
+		}
+
+		/**
+		 * True if the box in the slot is frozen and not on a goal for its letter.
+		 */
+		private boolean isFrozenAwayFromGoal(int slot, int cell) {
+			if (!slotNeeded[slot] || world.getGoalLetterAt(cell) == slotLetter[slot])
+				return false;
+			visitStamp++;
+			return isFrozen(cell);
+		}
+	}
+
+	private final Context context;
+	private final int[] cells;
+	private final int uncompletedGoals;
+	private final long hash;   // Zobrist hash of the agent and box positions
+
+	/**
+	 * Creates the initial state from the world of the context.
+	 */
+	public PlannerState(Context context) {
+		World world = context.world;
+		this.context = context;
+		this.cells = new int[context.slotBoxIndex.length];
+		this.cells[0] = world.cellIndex(world.getAgent(context.agentId).getPosition());
+		for (int slot = 1; slot < cells.length; slot++) {
+			Box box = world.getBoxes().get(context.slotBoxIndex[slot]);
+			this.cells[slot] = world.cellIndex(box.getPosition());
+		}
+		this.uncompletedGoals = world.getNumberOfUncompletedGoals();
+		this.hash = world.getZobristHash();
+	}
+
+	private PlannerState(PlannerState parent, int[] cells, int uncompletedGoals, long hash) {
+		this.context = parent.context;
+		this.cells = cells;
+		this.uncompletedGoals = uncompletedGoals;
+		this.hash = hash;
+	}
+
+	public Context getContext() {
+		return context;
+	}
+
+	public int getAgentCell() {
+		return cells[0];
+	}
+
+	public int getBoxCell(int boxId) {
+		int slot = boxId < context.boxIdSlot.length ? context.boxIdSlot[boxId] : 0;
+		if (slot == 0) {
+			World world = context.world;
+			return world.cellIndex(world.getBoxById(boxId).getPosition());
+		}
+		return cells[slot];
+	}
+
+	public int getNumberOfUncompletedGoals() {
+		return uncompletedGoals;
+	}
+
+	public boolean isGoalCompleted(Goal goal) {
+		World world = context.world;
+		int cell = world.cellIndex(goal.getPosition());
+		int boxIndex = world.getBoxIndexAt(cell);
+		if (boxIndex >= 0) {
+			Box box = world.getBoxes().get(boxIndex);
+			int slot = context.boxIdSlot[box.getId()];
+			if (slot == 0 || cells[slot] == cell) {
+				return box.getLetter() == goal.getLetter();
+			}
+		}
+		for (int slot = 1; slot < cells.length; slot++) {
+			if (cells[slot] == cell) {
+				return context.slotLetter[slot] == goal.getLetter();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Applies the command with the same semantics as World.update.
+	 * The state has to be stamped on the context (see Context.stamp).
+	 *
+	 * @return the resulting state or null if the command is not applicable.
+	 */
+	PlannerState apply(Command command) {
+		World world = context.world;
+		int agentCell = cells[0];
+
+		switch (command.actType) {
+		case Move: {
+			int agentDestCell = world.neighbourCell(agentCell, command.dir1);
+			if (context.isFreeCell(agentDestCell)) {
+				return successor(agentDestCell, 0, 0, 0);
+			}
+			break;
+		}
+		case Push: {
+			int boxSrcCell = world.neighbourCell(agentCell, command.dir1);
+			if (boxSrcCell < 0 || Command.isOpposite(command.dir1, command.dir2))
+				break;
+			int slot = context.occupant[boxSrcCell] - 1;
+			int boxDestCell = world.neighbourCell(boxSrcCell, command.dir2);
+			if (slot > 0 && context.isFreeCell(boxDestCell)) {
+				return successor(boxSrcCell, slot, boxSrcCell, boxDestCell);
+			}
+			break;
+		}
+		case Pull: {
+			int agentDestCell = world.neighbourCell(agentCell, command.dir1);
+			int boxSrcCell = world.neighbourCell(agentCell, command.dir2);
+			if (boxSrcCell < 0 || command.dir1 == command.dir2)
+				break;
+			int slot = context.occupant[boxSrcCell] - 1;
+			if (slot > 0 && context.isFreeCell(agentDestCell)) {
+				return successor(agentDestCell, slot, boxSrcCell, agentCell);
+			}
+			break;
+		}
+		}
+		return null;
+	}
+
+	private PlannerState successor(int agentDestCell, int boxSlot, int boxSrcCell, int boxDestCell) {
+		int[] newCells = cells.clone();
+		newCells[0] = agentDestCell;
+		int newUncompletedGoals = uncompletedGoals;
+		long newHash = hash ^ Zobrist.agentKey(context.agentId, cells[0]) ^ Zobrist.agentKey(context.agentId, agentDestCell);
+		if (boxSlot > 0) {
+			World world = context.world;
+			char letter = context.slotLetter[boxSlot];
+			int boxId = context.slotBoxId[boxSlot];
+			newCells[boxSlot] = boxDestCell;
+			newHash ^= Zobrist.boxKey(boxId, boxSrcCell) ^ Zobrist.boxKey(boxId, boxDestCell);
+			if (world.getGoalLetterAt(boxSrcCell) == letter)
+				newUncompletedGoals++;
+			if (world.getGoalLetterAt(boxDestCell) == letter)
+				newUncompletedGoals--;
+		}
+		return new PlannerState(this, newCells, newUncompletedGoals, newHash);
+	}
+
+	/**
+	 * True if the command moves a box of the agent into a deadlock: onto a dead square or
+	 * into a position where it, or a box next to it, is frozen away from a goal.
+	 * The state has to be stamped on the context and next has to be the result of apply(command).
+	 */
+	boolean isDeadlock(Command command, PlannerState next) {
+		if (command.actType == Command.type.Move)
+			return false;
+
+		World world = context.world;
+		Command.dir boxDir = command.actType == Command.type.Push ? command.dir1 : command.dir2;
+		int boxSrcCell = world.neighbourCell(cells[0], boxDir);
+		int slot = context.occupant[boxSrcCell] - 1;
+		int boxDestCell = next.cells[slot];
+		char letter = context.slotLetter[slot];
+
+		if (world.isDeadSquare(boxDestCell, letter) && !world.isDeadSquare(boxSrcCell, letter))
+			return true;
+
+		// Check the freeze on the occupancy of the next state, agents never block a box for good
+		context.occupant[boxSrcCell] = 0;
+		context.occupant[cells[0]] = 0;
+		context.occupant[boxDestCell] = slot + 1;
+		boolean deadlock = context.isFrozenAwayFromGoal(slot, boxDestCell);
+		for (Command.dir dir : Command.dir.values()) {
+			int neighbour = world.neighbourCell(boxDestCell, dir);
+			if (deadlock || neighbour < 0)
+				continue;
+			int neighbourSlot = context.occupant[neighbour] - 1;
+			if (neighbourSlot > 0)
+				deadlock = context.isFrozenAwayFromGoal(neighbourSlot, neighbour);
+		}
+		context.occupant[boxDestCell] = 0;
+		context.occupant[cells[0]] = 1;
+		context.occupant[boxSrcCell] = slot + 1;
+		return deadlock;
+	}
+
+	/**
+	 * Creates a full copy of the world in this state. Only meant for the edges of the planner.
+	 */
+	public World toWorld() {
+		World world = new World(context.world);
+		for (int slot = 1; slot < cells.length; slot++) {
+			world.getBoxes().get(context.slotBoxIndex[slot]).setPosition(world.cellToPoint(cells[slot]));
+		}
+		world.getAgent(context.agentId).setPosition(world.cellToPoint(cells[0]));
+		world.buildObjectGrid();
+		return world;
+	}
+
+	public long getZobristHash() {
+		return hash;
+	}
+
+	@Override
+	public int hashCode() {
+		return Zobrist.fold(hash);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		PlannerState other = (PlannerState) obj;
+		return hash == other.hash && context == other.context && Arrays.equals(cells, other.cells);
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer buffer = new StringBuffer();
+		World world = context.world;
+		buffer.append("AGENT " + context.agentId + " Position: " + world.cellToPoint(cells[0]));
+		for (int slot = 1; slot < cells.length; slot++) {
+			buffer.append(" BOX " + context.slotLetter[slot] + " Position: " + world.cellToPoint(cells[slot]));
+		}
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,259 @@
+package client.Search;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import client.Command;
+import client.NoOpCommand;
+import client.Point;
+import client.World;
+import client.Client.Agent;
+
+/**
+ * Safe Interval Path Planning (SIPP) of a travel among the plans of the other agents.
+ *
+ * The plans of the other agents in the world are turned into the steps at which they use each
+ * cell, as in World.checkPlans: the cells of the agent before and after the step and of the box
+ * it moves. After its end a plan keeps the cells of its agent and of the last box it has moved;
+ * agents without a plan keep their cell. The steps at which a cell is free form its safe intervals. The A* runs over (cell, safe
+ * interval) with the earliest arrival time, so a wait is part of a move instead of a state of its
+ * own. Boxes block like in PathNode, only the target may hold a box. The agent stays where the
+ * plan ends, so the plan must end in a safe interval that never ends: the one of the target, or if
+ * the target holds a box the one of the cell before it (the travel planner drops the last move).
+ */
+public class SafeIntervalSearch {
+	private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+	private final World world;
+	private final int startCell;
+	private final int targetCell;
+	private final int maxExpansions;
+
+	// Steps at which a cell is used and the step from which it is used for good
+	private final Map<Integer, BitSet> usedSteps = new HashMap<Integer, BitSet>();
+	private final int[] usedFrom;
+	// Safe intervals per cell as start and end steps, computed when the cell is reached
+	private final int[][] intervals;
+
+	private static class Node {
+		final int cell;
+		final int interval;
+		final int time;
+		final int f;
+		final Node parent;
+		final Command.dir dir;
+		final int waits;
+
+		Node(int cell, int interval, int time, int f, Node parent, Command.dir dir, int waits) {
+			this.cell = cell;
+			this.interval = interval;
+			this.time = time;
+			this.f = f;
+			this.parent = parent;
+			this.dir = dir;
+			this.waits = waits;
+		}
+	}
+
+	/**
+	 * @param world the world with the plans of the other agents. As in World.checkPlans the agents
+	 *        with a lower id have already chosen their command in this round.
+	 * @param maxExpansions the number of expanded nodes after which the search gives up.
+	 */
+	public SafeIntervalSearch(World world, int agentId, Point target, int maxExpansions) {
+		this.world = world;
+		this.startCell = world.cellIndex(world.getAgent(agentId).getPosition());
+		this.targetCell = world.cellIndex(target);
+		this.maxExpansions = maxExpansions;
+
+		usedFrom = new int[world.getLevelSize()];
+		intervals = new int[world.getLevelSize()][];
+		Arrays.fill(usedFrom, INFINITY);
+		for (Agent other : world.getAgents()) {
+			if (other.getId() != agentId) {
+				reserve(other, world.getPlan(other.getId()), other.getId() < agentId);
+			}
+		}
+	}
+
+	/**
+	 * True if another agent has a plan with moves, i.e. a search among the plans differs from a static one.
+	 */
+	public static boolean hasMovingAgents(World world, int agentId) {
+		for (Agent other : world.getAgents()) {
+			List<Command> plan = world.getPlan(other.getId());
+			if (other.getId() != agentId && plan != null) {
+				for (Command command : plan) {
+					if (command.dir1 != null) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private void reserve(Agent agent, List<Command> plan, boolean hasActed) {
+		int cell = world.cellIndex(agent.getPosition());
+		int boxCell = -1;
+		int step = 0;
+		if (hasActed) {
+			int newCell = world.cellIndex(agent.getNewPosition());
+			use(cell, 0);
+			use(newCell, 0);
+			cell = newCell;
+			step = 1;
+		}
+		if (plan != null) {
+			for (Command command : plan) {
+				int next = command.dir1 == null ? cell : world.neighbourCell(cell, command.dir1);
+				if (next < 0) {
+					break;
+				}
+				use(cell, step);
+				use(next, step);
+				if (command.actType == Command.type.Push) {
+					boxCell = world.neighbourCell(next, command.dir2);
+					use(boxCell, step);
+				} else if (command.actType == Command.type.Pull) {
+					use(world.neighbourCell(cell, command.dir2), step);
+					boxCell = cell;
+				}
+				cell = next;
+				step++;
+			}
+		}
+		usedFrom[cell] = Math.min(usedFrom[cell], step);
+		if (boxCell >= 0) {
+			usedFrom[boxCell] = Math.min(usedFrom[boxCell], step);
+		}
+	}
+
+	private void use(int cell, int step) {
+		if (cell < 0) {
+			return;
+		}
+		BitSet steps = usedSteps.get(cell);
+		if (steps == null) {
+			steps = new BitSet();
+			usedSteps.put(cell, steps);
+		}
+		steps.set(step);
+	}
+
+	/**
+	 * The safe intervals of the cell, start and end step of each one.
+	 */
+	private int[] getIntervals(int cell) {
+		if (intervals[cell] != null) {
+			return intervals[cell];
+		}
+		BitSet steps = usedSteps.get(cell);
+		int limit = usedFrom[cell];
+		int[] found = new int[8];
+		int count = 0;
+		int start = 0;
+		while (start < limit) {
+			if (steps != null) {
+				start = steps.nextClearBit(start);
+			}
+			if (start >= limit) {
+				break;
+			}
+			int nextUsed = steps == null ? -1 : steps.nextSetBit(start);
+			int end = nextUsed < 0 || nextUsed > limit ? limit - 1 : nextUsed - 1;
+			if (count + 2 > found.length) {
+				found = Arrays.copyOf(found, found.length * 2);
+			}
+			found[count++] = start;
+			found[count++] = end;
+			start = end + 2;
+		}
+		intervals[cell] = Arrays.copyOf(found, count);
+		return intervals[cell];
+	}
+
+	/**
+	 * @return the commands to the target, with NoOps where the agent waits, or null if there are
+	 *         none or the search has given up.
+	 */
+	public LinkedList<Command> search() {
+		int[] startIntervals = getIntervals(startCell);
+		if (startIntervals.length == 0 || startIntervals[0] > 0) {
+			return null;   // the start is in use at once
+		}
+		PriorityQueue<Node> frontier = new PriorityQueue<Node>((a, b) -> a.f != b.f ? Integer.compare(a.f, b.f) : Integer.compare(b.time, a.time));
+		Map<Long, Integer> arrivals = new HashMap<Long, Integer>();
+		frontier.add(new Node(startCell, 0, 0, world.getDistance(startCell, targetCell), null, null, 0));
+		arrivals.put(stateKey(startCell, 0), 0);
+
+		int expanded = 0;
+		while (!frontier.isEmpty()) {
+			Node node = frontier.poll();
+			if (node.cell == targetCell && isFinal(node.parent != null && world.getBoxIndexAt(targetCell) >= 0 ? node.parent : node)) {
+				return extractCommands(node);
+			}
+			if (node.time > arrivals.get(stateKey(node.cell, node.interval))) {
+				continue;   // reached earlier on another way
+			}
+			if (++expanded > maxExpansions) {
+				return null;
+			}
+
+			int end = getIntervals(node.cell)[node.interval * 2 + 1];
+			for (Command.dir dir : Command.dir.values()) {
+				int next = world.neighbourCell(node.cell, dir);
+				if (next < 0 || world.isWallAt(next) || (world.getBoxIndexAt(next) >= 0 && next != targetCell)) {
+					continue;
+				}
+				int[] nextIntervals = getIntervals(next);
+				for (int i = 0; i < nextIntervals.length; i += 2) {
+					// Leave at the first step both cells are free
+					int step = Math.max(node.time, nextIntervals[i]);
+					if (step > end) {
+						break;
+					}
+					if (step > nextIntervals[i + 1]) {
+						continue;
+					}
+					long key = stateKey(next, i / 2);
+					Integer arrival = arrivals.get(key);
+					if (arrival == null || step + 1 < arrival) {
+						arrivals.put(key, step + 1);
+						int f = step + 1 + world.getDistance(next, targetCell);
+						frontier.add(new Node(next, i / 2, step + 1, f, node, dir, step - node.time));
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * True if the safe interval of the node never ends, i.e. no other agent uses the cell after the node's time.
+	 */
+	private boolean isFinal(Node node) {
+		return getIntervals(node.cell)[node.interval * 2 + 1] == INFINITY - 1;
+	}
+
+	private static long stateKey(int cell, int interval) {
+		return ((long) cell << 32) + interval;
+	}
+
+	private LinkedList<Command> extractCommands(Node node) {
+		LinkedList<Command> commands = new LinkedList<Command>();
+		while (node.parent != null) {
+			commands.addFirst(Command.move(node.dir));
+			for (int i = 0; i < node.waits; i++) {
+				commands.addFirst(NoOpCommand.instance);
+			}
+			node = node.parent;
+		}
+		return commands;
+	}
+}
@@ -12,6 +12,11 @@ public abstract class SearchNode {
 	protected SearchNode previousNode;
 	protected int stepCount;
 	protected World world;
+	int frontierPosition = -1;   // slot in the frontier heap of BestFirstSearch
+	
+	// Cached evaluation, h is -1 until the node has been evaluated by a heuristic
+	private int h = -1;
+	private int f;
 	
 	public SearchNode(World world) {
 		this.world = world;
@@ -20,7 +25,7 @@ public abstract class SearchNode {
 	}
 	
 	public SearchNode(World world, SearchNode parentNode, Command command) {
-		this.world = new World(world);
+		this.world = world;
 		this.previousNode = parentNode;
 		this.command = command;
 		this.stepCount = parentNode.getStepCount() +1;
@@ -34,6 +39,23 @@ public abstract class SearchNode {
 		return stepCount;
 	}
 	
+	public boolean isEvaluated() {
+		return h >= 0;
+	}
+	
+	public void setEvaluation(int h, int f) {
+		this.h = h;
+		this.f = f;
+	}
+	
+	public int getH() {
+		return h;
+	}
+	
+	public int getF() {
+		return f;
+	}
+	
 	@Override
 	public String toString() {
 		StringBuffer buffer = new StringBuffer();
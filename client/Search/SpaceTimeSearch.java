@@ -0,0 +1,181 @@
+package client.Search;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import client.Command;
+import client.NoOpCommand;
+import client.World;
+
+/**
+ * A* over (agent cell, box cell, time) for one agent under space-time constraints.
+ *
+ * The agent has to reach the end cell and, if it moves a box, bring that box to the end cell of
+ * the box. Besides moving, pushing and pulling the box it may wait. Other objects are static
+ * obstacles. A constraint forbids a cell at a step: the step must not use the cell, i.e. the cell
+ * of the agent before and after the step and the cell of the box (its new cell for a push, its
+ * old one for a pull) as in World.checkPlans. After the end the agent and the box keep their cells.
+ */
+public class SpaceTimeSearch {
+	private final World world;
+	private final boolean[] obstacles;
+	private final int startCell;
+	private final int boxStartCell;
+	private final int endCell;
+	private final int boxEndCell;
+	private final Set<Long> constraints;
+	private final int horizon;
+	private final long deadline;
+	// Last step with a constraint on the end cells, the agent has to stay there after it
+	private int lastEndConstraint = -1;
+	private final Set<Long> explored = new HashSet<Long>();
+
+	private static class Node {
+		final int cell;
+		final int boxCell;
+		final int step;
+		final int f;
+		final Node parent;
+		final Command command;
+
+		Node(int cell, int boxCell, int step, int f, Node parent, Command command) {
+			this.cell = cell;
+			this.boxCell = boxCell;
+			this.step = step;
+			this.f = f;
+			this.parent = parent;
+			this.command = command;
+		}
+	}
+
+	/**
+	 * @param obstacles the cells the agent and the box can't enter.
+	 * @param boxStartCell the cell of the box to move or -1 if no box is moved.
+	 * @param constraints forbidden cells as keys from constraintKey.
+	 * @param horizon the maximal number of steps.
+	 * @param deadline the System.nanoTime at which the search gives up.
+	 */
+	public SpaceTimeSearch(World world, boolean[] obstacles, int startCell, int boxStartCell, int endCell, int boxEndCell,
+			Set<Long> constraints, int horizon, long deadline) {
+		this.world = world;
+		this.obstacles = obstacles;
+		this.startCell = startCell;
+		this.boxStartCell = boxStartCell;
+		this.endCell = endCell;
+		this.boxEndCell = boxEndCell;
+		this.constraints = constraints;
+		this.horizon = horizon;
+		this.deadline = deadline;
+
+		int size = world.getLevelSize();
+		for (long key : constraints) {
+			int cell = (int) (key % size);
+			if (cell == endCell || cell == boxEndCell) {
+				lastEndConstraint = Math.max(lastEndConstraint, (int) (key / size));
+			}
+		}
+	}
+
+	public static long constraintKey(World world, int cell, int step) {
+		return (long) step * world.getLevelSize() + cell;
+	}
+
+	/**
+	 * @return the commands to the end cells or null if there are none within the horizon or the deadline has passed.
+	 */
+	public LinkedList<Command> search() {
+		PriorityQueue<Node> frontier = new PriorityQueue<Node>((a, b) -> a.f != b.f ? Integer.compare(a.f, b.f) : Integer.compare(b.step, a.step));
+		frontier.add(new Node(startCell, boxStartCell, 0, heuristic(startCell, boxStartCell), null, null));
+
+		int expanded = 0;
+		while (!frontier.isEmpty()) {
+			if (++expanded % 256 == 0 && System.nanoTime() > deadline) {
+				return null;
+			}
+			Node node = frontier.poll();
+			if (node.cell == endCell && node.boxCell == boxEndCell && node.step > lastEndConstraint) {
+				return extractCommands(node);
+			}
+			if (node.step >= horizon || !explored.add(stateKey(node.cell, node.boxCell, node.step))) {
+				continue;
+			}
+
+			expand(frontier, node, NoOpCommand.instance, node.cell, node.boxCell, node.cell);
+			for (Command command : Command.every) {
+				int next = world.neighbourCell(node.cell, command.dir1);
+				if (next < 0) {
+					continue;
+				}
+				switch (command.actType) {
+				case Move:
+					if (isFree(next, node.boxCell)) {
+						expand(frontier, node, command, next, node.boxCell, node.cell);
+					}
+					break;
+				case Push: {
+					int boxNext = world.neighbourCell(next, command.dir2);
+					if (next == node.boxCell && boxNext >= 0 && isFree(boxNext, node.boxCell)) {
+						expand(frontier, node, command, next, boxNext, boxNext);
+					}
+					break;
+				}
+				case Pull: {
+					int boxCell = world.neighbourCell(node.cell, command.dir2);
+					if (boxCell >= 0 && boxCell == node.boxCell && isFree(next, node.boxCell)) {
+						expand(frontier, node, command, next, node.cell, boxCell);
+					}
+					break;
+				}
+				}
+			}
+		}
+		return null;
+	}
+
+	private void expand(PriorityQueue<Node> frontier, Node node, Command command, int cell, int boxCell, int usedBoxCell) {
+		int step = node.step;
+		if (isForbidden(node.cell, step) || isForbidden(cell, step) || isForbidden(usedBoxCell, step)) {
+			return;
+		}
+		if (explored.contains(stateKey(cell, boxCell, step + 1))) {
+			return;
+		}
+		int f = step + 1 + heuristic(cell, boxCell);
+		if (f > horizon) {
+			return;   // the end can't be reached in time
+		}
+		frontier.add(new Node(cell, boxCell, step + 1, f, node, command));
+	}
+
+	private boolean isForbidden(int cell, int step) {
+		return !constraints.isEmpty() && constraints.contains(constraintKey(world, cell, step));
+	}
+
+	private boolean isFree(int cell, int boxCell) {
+		return !obstacles[cell] && cell != boxCell;
+	}
+
+	private int heuristic(int cell, int boxCell) {
+		int h = world.getDistance(cell, endCell);
+		if (boxCell >= 0) {
+			h = Math.max(h, world.getDistance(boxCell, boxEndCell));
+		}
+		return h;
+	}
+
+	private long stateKey(int cell, int boxCell, int step) {
+		long size = world.getLevelSize();
+		return ((long) step * size + cell) * (size + 1) + (boxCell + 1);
+	}
+
+	private LinkedList<Command> extractCommands(Node node) {
+		LinkedList<Command> commands = new LinkedList<Command>();
+		while (node.parent != null) {
+			commands.addFirst(node.command);
+			node = node.parent;
+		}
+		return commands;
+	}
+}
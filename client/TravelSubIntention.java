@@ -32,7 +32,7 @@ public class TravelSubIntention extends SubIntention {
 	@Override
 	public boolean isCompleted(SearchNode node) {
 		PathNode pathNode = (PathNode) node;
-		if (pathNode.getPosition().equals(this.getEndPosition())) {
+		if (pathNode.isAt(this.getEndPosition())) {
 			return true;
 		}
 		
@@ -0,0 +1,134 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import client.Client.Agent;
+
+/**
+ * The wait-for graph of the agents that don't act in this round.
+ *
+ * An agent is stuck if it sleeps or its plan has been held back by a conflict in the last round.
+ * A stuck agent waits for
+ * - the agent that has to get out of its way or that it yields to (see World.validPlan),
+ * - the agents that can do a job it has posted, i.e. the agents of the box color or the agent that has to travel,
+ * - the agents that are working for it: they have taken its job and notify it when it is done.
+ *
+ * A stuck agent can go on as soon as one of the agents it waits for goes on; an agent that
+ * waits for nothing known, e.g. a backoff after a failed plan, goes on when its time is up. The
+ * stuck agents that can't reach an agent that goes on are deadlocked: they wait for each other in
+ * a cycle or for the agents of such a cycle.
+ */
+public class WaitForGraph {
+	private final Map<Integer, Set<Integer>> waitsFor = new HashMap<Integer, Set<Integer>>();
+
+	public WaitForGraph(World world) {
+		for (Agent agent : world.getAgents()) {
+			if (agent.isStuck()) {
+				waitsFor.put(agent.getId(), new HashSet<Integer>());
+			}
+		}
+		for (Map.Entry<Integer, Set<Integer>> entry : waitsFor.entrySet()) {
+			Agent agent = world.getAgent(entry.getKey());
+			if (agent.getWaitingFor() >= 0) {
+				entry.getValue().add(agent.getWaitingFor());
+			}
+			for (Agent other : world.getAgents()) {
+				if (other != agent && other.isWorkingFor(agent.getId())) {
+					entry.getValue().add(other.getId());
+				}
+			}
+		}
+		for (SubIntention job : world.getJobs()) {
+			Set<Integer> owner = waitsFor.get(job.getOwner());
+			if (owner == null) {
+				continue;
+			}
+			for (Agent other : world.getAgents()) {
+				// An agent that can do its own job does it when it wakes up
+				if (other.getId() != job.getOwner() && canDo(other, job)) {
+					owner.add(other.getId());
+				}
+			}
+		}
+	}
+
+	private static boolean canDo(Agent agent, SubIntention job) {
+		if (job instanceof MoveBoxSubIntention) {
+			return ((MoveBoxSubIntention) job).getBox().getColor().equals(agent.getColor());
+		}
+		return job instanceof TravelSubIntention && ((TravelSubIntention) job).getAgentId() == agent.getId();
+	}
+
+	/**
+	 * The deadlocked agents, ordered by id.
+	 *
+	 * @return an empty list if every stuck agent can go on sooner or later.
+	 */
+	public List<Integer> findDeadlock() {
+		// The agents that go on: not stuck, waiting for nothing known or for an agent that goes on
+		Set<Integer> goingOn = new HashSet<Integer>();
+		for (Map.Entry<Integer, Set<Integer>> entry : waitsFor.entrySet()) {
+			if (entry.getValue().isEmpty()) {
+				goingOn.add(entry.getKey());
+			}
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Map.Entry<Integer, Set<Integer>> entry : waitsFor.entrySet()) {
+				if (goingOn.contains(entry.getKey())) {
+					continue;
+				}
+				for (int other : entry.getValue()) {
+					if (!waitsFor.containsKey(other) || goingOn.contains(other)) {
+						goingOn.add(entry.getKey());
+						changed = true;
+						break;
+					}
+				}
+			}
+		}
+
+		List<Integer> deadlocked = new ArrayList<Integer>();
+		for (int id : waitsFor.keySet()) {
+			if (!goingOn.contains(id)) {
+				deadlocked.add(id);
+			}
+		}
+		deadlocked.sort(null);
+		return deadlocked;
+	}
+
+	/**
+	 * The agents of a cycle among the deadlocked agents, ordered by id. Every deadlocked agent only
+	 * waits for deadlocked agents, so following the agents it waits for ends in a cycle.
+	 *
+	 * @param deadlocked the deadlocked agents, see findDeadlock.
+	 * @return an empty list if there are no deadlocked agents.
+	 */
+	public List<Integer> findCycle(List<Integer> deadlocked) {
+		List<Integer> path = new ArrayList<Integer>();
+		if (deadlocked.isEmpty()) {
+			return path;
+		}
+		int id = deadlocked.get(0);
+		while (!path.contains(id)) {
+			path.add(id);
+			int next = -1;
+			for (int other : waitsFor.get(id)) {
+				if (deadlocked.contains(other) && (next < 0 || other < next)) {
+					next = other;
+				}
+			}
+			id = next;
+		}
+		List<Integer> cycle = new ArrayList<Integer>(path.subList(path.indexOf(id), path.size()));
+		cycle.sort(null);
+		return cycle;
+	}
+}
@@ -2,6 +2,7 @@ package client;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -11,38 +12,75 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.PriorityQueue;
 import java.util.Queue;
-import java.util.Random;
 import java.util.Set;
 
 import client.Client.Agent;
 import client.Client.AgentStatus;
-import client.Command.type;
 import client.Intention.GoalComparator;
 import client.Heuristic.AStar;
-import client.Heuristic.HeuristicPathFunction;
+import client.Heuristic.HeuristicJumpPointFunction;
 import client.Heuristic.IHeuristicFunction;
 import client.Search.BestFirstSearch;
-import client.Search.PathNode;
+import client.Search.JumpPointNode;
 import client.Search.SearchNode;
 
 public class World {
 	private List<Box> boxes = new ArrayList<Box>();
-	private static List<Goal> goals = new ArrayList<Goal>();
+	private static volatile List<Goal> goals = new ArrayList<Goal>();
 	private List<Agent> agents = new ArrayList<Agent>();
 	private static HashSet<Point> walls = new HashSet<Point>();
 	private HashSet<Point> madeUpWalls = new HashSet<Point>();
 	//private static List<Point> rechableCells = new ArrayList<Point>();
 	
-	private static Map<Integer, List<Point>> reachableCells = new HashMap<>();
+	// Cell indices reachable by each agent at the start of the level
+	private static Map<Integer, BitSet> reachableCells = new HashMap<>();
 	
 	private int width;
 	private int height;
 	private Map<Integer, Intention> intentionMap = new HashMap<>();
-	private List<SubIntention> jobList = new ArrayList<>();
+	private JobBoard jobBoard = new JobBoard();
 	private Map<Integer, LinkedList<Command>> planMap = new HashMap<>();
+	// Cells used by the plans in planMap per step, created on the first conflict check
+	private ReservationTable reservations = null;
 	
 	private Map<Integer, Integer[]> outerWallsX =  new HashMap<>();
 	private Map<Integer, Integer[]> outerWallsY =  new HashMap<>();
+	
+	/*
+	 * Cell-indexed occupancy grid (index = y * width + x).
+	 * 
+	 * levelGrid holds the static level: wall flag and goal letter. It is shared by all worlds.
+	 * objectGrid holds the box index + 1 (low bits) and agent index + 1 (high bits) per cell.
+	 * Copies share the objectGrid of their origin until they are changed (copy-on-write),
+	 * so read-only copies (e.g. for path searches) don't pay for the grid.
+	 */
+	private static final int GOAL_MASK = 0xFF;
+	private static final int WALL_FLAG = 0x100;
+	private static final int BOX_MASK = 0x0FFF;
+	private static final int AGENT_SHIFT = 12;
+	
+	private static short[] levelGrid;
+	private static Goal[] goalGrid;
+	private static int[] neighbourTable;   // cell * 4 + dir.ordinal(), -1 for walls and the outside
+	private static DistanceTable distanceTable;
+	private static BoxDistanceTable boxDistanceTable;
+	private static DeadSquareDetector deadSquares;
+	private static ReachabilityOracle wallComponents;
+	private short[] objectGrid;
+	private boolean objectGridShared = false;
+	
+	// XOR of the Zobrist keys of all agents and boxes, kept up to date on every move
+	private long zobristHash = 0;
+	
+	// Cells whose occupancy has changed, only kept for the world of the client (not for copies)
+	private ChangeJournal changeJournal = null;
+	
+	// Abstraction for long-range path queries on large levels, only kept for the world of the client
+	private static final int CLUSTER_LEVEL_SIZE = 4000;
+	private ClusterGraph clusterGraph = null;
+	
+	// Components of the cells free of walls and boxes, only kept for the world of the client
+	private ReachabilityOracle boxComponents = null;
 
 	public Map<Integer, Intention> getIntentionMap() {
 		return intentionMap;
@@ -56,6 +94,7 @@ public class World {
 		Agent a = copy.getAgent(agentId);
 		copy.agents.clear();
 		copy.addAgent(a);
+		copy.buildObjectGrid();
 		return copy;
 	}
 
@@ -72,10 +111,15 @@ public class World {
 
 		this.width = old.width;
 		this.height = old.height;
+		
+		this.objectGrid = old.objectGrid;
+		this.objectGridShared = true;
+		old.objectGridShared = true;
+		this.zobristHash = old.zobristHash;
 
 		/* No deep-copy! (on purpose)
 		 * 
-		 * this.intentionMap = old.intentionMap; this.jobList = old.jobList;
+		 * this.intentionMap = old.intentionMap; this.jobBoard = old.jobBoard;
 		 * this.planMap = old.planMap;
 		 * 
 		 */
@@ -84,9 +128,7 @@ public class World {
 			this.intentionMap.put(entry.getKey(), new Intention(entry.getValue()));
 		}
 
-		for (SubIntention job : old.jobList) {
-			this.jobList.add(job.deepCopy());
-		}
+		this.jobBoard = new JobBoard(old.jobBoard);
 
 		for (Map.Entry<Integer, LinkedList<Command>> entry : old.planMap.entrySet()) {
 			LinkedList<Command> cmds = new LinkedList<>();
@@ -117,12 +159,15 @@ public class World {
 		return width * height;
 	}
 
-	public List<Point> getRechableCells(int agentId) {
+	/**
+	 * @return the cell indices reachable by the agent at the start of the level, not to be changed.
+	 */
+	public BitSet getRechableCells(int agentId) {
 		return reachableCells.get(agentId);
 	}
 
-	public static void setRechableCells(List<Point> rechableCells, int agentId) {
-		World.reachableCells.put(agentId, Collections.unmodifiableList(rechableCells));
+	public static void setRechableCells(BitSet rechableCells, int agentId) {
+		World.reachableCells.put(agentId, rechableCells);
 	}
 
 	public List<Box> getBoxes() {
@@ -201,11 +246,52 @@ public class World {
 		this.width = width;
 		this.height = height;
 		
+		levelGrid = new short[width * height];
+		goalGrid = new Goal[width * height];
+		for (Point wall : walls) {
+			levelGrid[cellIndex(wall)] |= WALL_FLAG;
+		}
+		for (Goal goal : goals) {
+			int cell = cellIndex(goal.getPosition());
+			levelGrid[cell] |= goal.getLetter() & GOAL_MASK;
+			goalGrid[cell] = goal;
+		}
+		buildObjectGrid();
+		
+		boolean[] wallCells = new boolean[width * height];
+		for (int cell = 0; cell < wallCells.length; cell++) {
+			wallCells[cell] = (levelGrid[cell] & WALL_FLAG) != 0;
+		}
+		neighbourTable = new int[width * height * 4];
+		for (int cell = 0; cell < wallCells.length; cell++) {
+			int x = cell % width;
+			int y = cell / width;
+			neighbourTable[cell * 4 + Command.dir.N.ordinal()] = y > 0 ? cell - width : -1;
+			neighbourTable[cell * 4 + Command.dir.W.ordinal()] = x > 0 ? cell - 1 : -1;
+			neighbourTable[cell * 4 + Command.dir.E.ordinal()] = x < width - 1 ? cell + 1 : -1;
+			neighbourTable[cell * 4 + Command.dir.S.ordinal()] = y < height - 1 ? cell + width : -1;
+			for (int dir = 0; dir < 4; dir++) {
+				int next = neighbourTable[cell * 4 + dir];
+				if (next >= 0 && wallCells[next]) {
+					neighbourTable[cell * 4 + dir] = -1;
+				}
+			}
+		}
+		int[] goalCells = new int[goals.size()];
+		for (int i = 0; i < goalCells.length; i++) {
+			goalCells[i] = cellIndex(goals.get(i).getPosition());
+		}
+		distanceTable = new DistanceTable(width, height, wallCells);
+		distanceTable.precompute(goalCells);
+		boxDistanceTable = new BoxDistanceTable(width, height, wallCells);
+		deadSquares = new DeadSquareDetector(width, height, wallCells, goals, boxes, boxDistanceTable);
+		wallComponents = new ReachabilityOracle(this, true);
+		
 		for(int x= 0; x< width;x++) {
 			int firstWall = 0;
 			
 			for(int y=0;y<height;y++) {
-				if(walls.contains(new Point(x,y))) {
+				if((levelGrid[y * width + x] & WALL_FLAG) != 0) {
 					firstWall = y;
 					break;
 				}
@@ -213,7 +299,7 @@ public class World {
 			
 			int lastWall = firstWall;
 			for(int y=height-1;y>firstWall;y--) {
-				if(walls.contains(new Point(x,y))) {
+				if((levelGrid[y * width + x] & WALL_FLAG) != 0) {
 					lastWall = y;
 					break;
 				}
@@ -229,14 +315,14 @@ public class World {
 			int firstWall = 0;
 			
 			for(int x=0;x<width;x++) {
-				if(walls.contains(new Point(x,y))) {
+				if((levelGrid[y * width + x] & WALL_FLAG) != 0) {
 					firstWall = x;
 					break;
 				}
 			}
 			int lastWall = firstWall;
 			for(int x=width-1;x>firstWall;x--) {
-				if(walls.contains(new Point(x,y))) {
+				if((levelGrid[y * width + x] & WALL_FLAG) != 0) {
 					lastWall = x;
 					break;
 				}
@@ -248,6 +334,258 @@ public class World {
 		}				
 		
 	}
+	
+	/**
+	 * Index of the cell in the occupancy grid or -1 if the point is outside the level.
+	 */
+	public int cellIndex(Point point) {
+		int x = point.getX();
+		int y = point.getY();
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return -1;
+		}
+		return y * width + x;
+	}
+	
+	public Point cellToPoint(int cell) {
+		return new Point(cell % width, cell / width);
+	}
+
+	/**
+	 * Index of the neighbouring cell in the given direction or -1 if it is a wall or outside the level.
+	 * Made up walls are not taken into account.
+	 */
+	public int neighbourCell(int cell, Command.dir dir) {
+		return neighbourTable[cell * 4 + dir.ordinal()];
+	}
+
+	/**
+	 * Manhatten distance between two cells
+	 */
+	public int cellDistance(int cell1, int cell2) {
+		return Math.abs(cell1 % width - cell2 % width) + Math.abs(cell1 / width - cell2 / width);
+	}
+
+	/**
+	 * Shortest path distance around the walls between two cells or DistanceTable.UNREACHABLE.
+	 * Distances to goal cells are precomputed, use goal cells as target when possible.
+	 */
+	public int getDistance(int fromCell, int toCell) {
+		return distanceTable.getDistance(fromCell, toCell);
+	}
+	
+	public int getDistance(Point from, Point to) {
+		return distanceTable.getDistance(cellIndex(from), cellIndex(to));
+	}
+
+	/**
+	 * Minimal number of pushes and pulls to move a box to the target cell or BoxDistanceTable.UNREACHABLE.
+	 */
+	public int getBoxDistance(int boxCell, int targetCell) {
+		return boxDistanceTable.getDistance(boxCell, targetCell);
+	}
+
+	/**
+	 * True if a box with the letter can never reach a goal from the cell.
+	 * Always false for letters with more boxes than goals.
+	 */
+	public boolean isDeadSquare(int cell, char letter) {
+		return deadSquares.isDeadSquare(cell, letter);
+	}
+	
+	public boolean isEveryBoxNeeded(char letter) {
+		return deadSquares.isEveryBoxNeeded(letter);
+	}
+
+	public boolean isWallAt(int cell) {
+		if ((levelGrid[cell] & WALL_FLAG) != 0) {
+			return true;
+		}
+		return !madeUpWalls.isEmpty() && madeUpWalls.contains(cellToPoint(cell));
+	}
+
+	/**
+	 * @return the letter of the goal on the cell or 0 if there is no goal.
+	 */
+	public char getGoalLetterAt(int cell) {
+		return (char) (levelGrid[cell] & GOAL_MASK);
+	}
+
+	/**
+	 * @return the index of the box on the cell in getBoxes() or -1 if there is no box.
+	 */
+	public int getBoxIndexAt(int cell) {
+		return (objectGrid[cell] & BOX_MASK) - 1;
+	}
+
+	/**
+	 * @return the index of the agent on the cell in getAgents() or -1 if there is no agent.
+	 */
+	public int getAgentIndexAt(int cell) {
+		return ((objectGrid[cell] & 0xFFFF) >>> AGENT_SHIFT) - 1;
+	}
+
+	/**
+	 * Rebuilds the occupancy grid from the box and agent positions.
+	 */
+	public void buildObjectGrid() {
+		if (levelGrid == null) {
+			return;
+		}
+		objectGrid = new short[width * height];
+		objectGridShared = false;
+		zobristHash = 0;
+		if (changeJournal != null) {
+			changeJournal.invalidate();
+		}
+		for (int i = 0; i < boxes.size(); i++) {
+			Box box = boxes.get(i);
+			setBoxCell(box.getPosition(), i);
+			zobristHash ^= Zobrist.boxKey(box.getId(), cellIndex(box.getPosition()));
+		}
+		for (int i = 0; i < agents.size(); i++) {
+			Agent agent = agents.get(i);
+			setAgentCell(agent.getPosition(), i);
+			zobristHash ^= Zobrist.agentKey(agent.getId(), cellIndex(agent.getPosition()));
+		}
+	}
+	
+	/**
+	 * Starts recording the cells whose occupancy changes.
+	 */
+	public void enableChangeJournal() {
+		changeJournal = new ChangeJournal();
+	}
+	
+	/**
+	 * Builds the cluster graph if the level is large, the change journal must be enabled.
+	 */
+	public void enableClusterGraph() {
+		if (getLevelSize() >= CLUSTER_LEVEL_SIZE) {
+			clusterGraph = new ClusterGraph(this);
+		}
+	}
+	
+	/**
+	 * Starts keeping the components of the cells free of boxes, the change journal must be enabled.
+	 */
+	public void enableReachabilityOracle() {
+		boxComponents = new ReachabilityOracle(this, false);
+	}
+	
+	/**
+	 * @return the cluster graph or null if it is not enabled for this world.
+	 */
+	public ClusterGraph getClusterGraph() {
+		return clusterGraph;
+	}
+	
+	/**
+	 * @return the journal of changed cells or null if it is not enabled for this world.
+	 */
+	public ChangeJournal getChangeJournal() {
+		return changeJournal;
+	}
+	
+	/**
+	 * 64-bit Zobrist hash of the agent and box positions.
+	 */
+	public long getZobristHash() {
+		return zobristHash;
+	}
+	
+	private void ensureObjectGridOwned() {
+		if (objectGridShared) {
+			objectGrid = objectGrid.clone();
+			objectGridShared = false;
+		}
+	}
+	
+	private int boxIndexAt(Point point) {
+		int cell = objectGrid == null ? -1 : cellIndex(point);
+		if (cell < 0) {
+			return -1;
+		}
+		return getBoxIndexAt(cell);
+	}
+	
+	private int agentIndexAt(Point point) {
+		int cell = objectGrid == null ? -1 : cellIndex(point);
+		if (cell < 0) {
+			return -1;
+		}
+		return getAgentIndexAt(cell);
+	}
+	
+	/**
+	 * Marks the cell as occupied by the box with the given index (or as free of boxes if the index is -1).
+	 */
+	private void setBoxCell(Point point, int boxIndex) {
+		int cell = objectGrid == null ? -1 : cellIndex(point);
+		if (cell < 0) {
+			return;
+		}
+		ensureObjectGridOwned();
+		objectGrid[cell] = (short) ((objectGrid[cell] & ~BOX_MASK) | (boxIndex + 1));
+		if (changeJournal != null) {
+			changeJournal.record(cell);
+		}
+	}
+	
+	/**
+	 * Marks the cell as occupied by the agent with the given index (or as free of agents if the index is -1).
+	 */
+	private void setAgentCell(Point point, int agentIndex) {
+		int cell = objectGrid == null ? -1 : cellIndex(point);
+		if (cell < 0) {
+			return;
+		}
+		ensureObjectGridOwned();
+		objectGrid[cell] = (short) ((objectGrid[cell] & BOX_MASK) | ((agentIndex + 1) << AGENT_SHIFT));
+		if (changeJournal != null) {
+			changeJournal.record(cell);
+		}
+	}
+	
+	private int indexOfAgent(Agent agent) {
+		int index = agentIndexAt(agent.getPosition());
+		if (index >= 0 && agents.get(index) == agent) {
+			return index;
+		}
+		for (int i = 0; i < agents.size(); i++) {
+			if (agents.get(i) == agent) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private void moveAgent(Agent agent, Point position) {
+		int index = indexOfAgent(agent);
+		if (index >= 0) {
+			setAgentCell(agent.getPosition(), -1);
+			setAgentCell(position, index);
+		}
+		zobristHash ^= Zobrist.agentKey(agent.getId(), cellIndex(agent.getPosition()))
+				^ Zobrist.agentKey(agent.getId(), cellIndex(position));
+		agent.setPosition(position);
+	}
+	
+	/**
+	 * Moves the box with the given id and keeps the occupancy grid up to date.
+	 */
+	public void moveBox(int boxId, Point position) {
+		Box box = getBoxById(boxId);
+		int index = boxIndexAt(box.getPosition());
+		if (index < 0 || boxes.get(index) != box) {
+			index = boxes.indexOf(box);
+		}
+		setBoxCell(box.getPosition(), -1);
+		setBoxCell(position, index);
+		zobristHash ^= Zobrist.boxKey(boxId, cellIndex(box.getPosition())) 
+				^ Zobrist.boxKey(boxId, cellIndex(position));
+		box.setPosition(position);
+	}
 
 	public Agent getAgent(int id) {
 		for(Agent agent:agents) {
@@ -282,6 +620,8 @@ public class World {
 
 	public void addBox(Box b) {
 		boxes.add(b);
+		setBoxCell(b.getPosition(), boxes.size() - 1);
+		zobristHash ^= Zobrist.boxKey(b.getId(), cellIndex(b.getPosition()));
 	}
 
 	public void addWall(int x, int y) {
@@ -298,6 +638,8 @@ public class World {
 
 	public void addAgent(Agent a) {
 		agents.add(a);
+		setAgentCell(a.getPosition(), agents.size() - 1);
+		zobristHash ^= Zobrist.agentKey(a.getId(), cellIndex(a.getPosition()));
 	}
 
 	public boolean putIntention(int agentId, Box box, Goal goal) {
@@ -311,11 +653,29 @@ public class World {
 
 	public boolean putPlan(int agentId, Queue<Command> commandQueue) {
 		planMap.put(agentId, (LinkedList<Command>) commandQueue);
+		if (reservations != null) {
+			reservations.clear(agentId);
+		}
 		return true;
 	}
 	
+	/**
+	 * @return the planned commands of the agent or null if it has no plan.
+	 */
+	public LinkedList<Command> getPlan(int agentId) {
+		return planMap.get(agentId);
+	}
+	
+	private LinkedList<Command> getPlanOrEmpty(int agentId) {
+		LinkedList<Command> plan = planMap.get(agentId);
+		return plan == null ? new LinkedList<Command>() : plan;
+	}
+	
 	public boolean clearPlan(int agentId) {
 		planMap.remove(agentId);
+		if (reservations != null) {
+			reservations.clear(agentId);
+		}
 		return true;
 	}
 	
@@ -329,7 +689,14 @@ public class World {
 			if(safePos == null) return false;
 			agent2.setStatus(AgentStatus.ACTIVE);
 			//agent2.replan();
-			agent1.sleep(30);
+			// Wait until agent2 is out of the way
+			if(plan == null) {
+				int blockedCell = cellIndex(agent2.getPosition());
+				agent1.sleepUntil(30, () -> isFreeCell(blockedCell), false);
+			} else {
+				agent1.sleepUntil(30, () -> !checkPlans(agent1.getId(), plan, agent2.getId(), getPlanOrEmpty(agent2.getId())), false);
+			}
+			agent1.setWaitingFor(agent2.getId());
 			addJob(new TravelSubIntention(agent2.getPosition(), safePos, agent2.getId(), null, agent1.getId()));
 			return true;
 		}
@@ -354,7 +721,8 @@ public class World {
 					if(handleBlockingAgentConflict(getAgent(agentId), otherAgent, plan)) {
 						return false;
 					}
-					else if (agentId > otherAgent.getId()) {						
+					else if (agentId > otherAgent.getId()) {
+						getAgent(agentId).setWaitingFor(otherAgent.getId());
 						return false;
 					}
 				}
@@ -364,81 +732,10 @@ public class World {
 	}
 
 	public boolean checkPlans(int agentId1, LinkedList<Command> plan1, int agentId2, LinkedList<Command> plan2) {
-		Agent a1 = getAgent(agentId1);
-		Agent a2 = getAgent(agentId2);
-		
-		Point pos1 = a1.getPosition();
-		Point pos2 = a2.getPosition();		
-
-		for (int i = 0; i < plan1.size(); i++) {
-			Point newPos1 = pos1;
-			Point boxPos1 = pos1;			
-			newPos1 = pos1.move(plan1.get(i).dir1);
-
-			if (plan1.get(i).actType == type.Push) {
-				boxPos1 = newPos1.move(plan1.get(i).dir2);
-			} else if (plan1.get(i).actType == type.Pull) {
-				boxPos1 = pos1.move(plan1.get(i).dir2);
-			}
-			
-
-			Point newPos2 = pos2;
-			Point boxPos2 = pos2;
-			if (agentId1 > agentId2) {
-				if (i == 0) {
-					newPos2 = a2.getNewPosition();
-				}
-				else if (i - 1 < plan2.size()) {
-					newPos2 = pos2.move(plan2.get(i - 1).dir1);
-
-					if (plan2.get(i - 1).actType == type.Push) {
-						boxPos2 = newPos2.move(plan2.get(i - 1).dir2);
-					} else if (plan2.get(i - 1).actType == type.Pull) {
-						boxPos2 = pos2.move(plan2.get(i - 1).dir2);
-					}
-				}
-			} else if (i < plan2.size()) {
-				newPos2 = pos2.move(plan2.get(i).dir1);
-
-				if (plan2.get(i).actType == type.Push) {
-					boxPos2 = newPos2.move(plan2.get(i).dir2);
-				} else if (plan2.get(i).actType == type.Pull) {
-					boxPos2 = pos2.move(plan2.get(i).dir2);
-				}
-			}
-
-			if (pos1.equals(pos2))
-				return true;
-
-			if (pos1.equals(newPos2))
-				return true;
-
-			if (pos1.equals(boxPos2))
-				return true;
-
-			if (newPos1.equals(pos2))
-				return true;
-
-			if (newPos1.equals(newPos2))
-				return true;
-
-			if (newPos1.equals(boxPos2))
-				return true;
-
-			if (boxPos1.equals(pos2))
-				return true;
-
-			if (boxPos1.equals(newPos2))
-				return true;
-
-			if (boxPos1.equals(boxPos2))
-				return true;
-
-			pos1 = newPos1;
-			pos2 = newPos2;
+		if (reservations == null) {
+			reservations = new ReservationTable();
 		}
-
-		return false;
+		return reservations.isConflict(getAgent(agentId1), plan1, getAgent(agentId2), plan2);
 	}
 
 	public boolean validStep(int agentId) {
@@ -561,29 +858,20 @@ public class World {
 	}
 
 	public boolean isAgentAt(Point point) {
-		for (Agent agent : agents) {
-			if (agent.getPosition().equals(point)) {
-				return true;
-			}
-		}
-		return false;
+		return agentIndexAt(point) >= 0;
 	}
 
 	public boolean isBoxAt(Point point) {
-		for (Box box : boxes) {
-			if (box.getPosition().equals(point)) {
-				return true;
-			}
-		}
-		return false;
+		return boxIndexAt(point) >= 0;
 	}
 
 	public boolean isWallAt(Point point) {
-		if (walls.contains(point)) {
+		int cell = levelGrid == null ? -1 : cellIndex(point);
+		if (cell >= 0 && (levelGrid[cell] & WALL_FLAG) != 0) {
 			return true;
 		}
 
-		if (madeUpWalls.contains(point)) {
+		if (!madeUpWalls.isEmpty() && madeUpWalls.contains(point)) {
 			return true;
 		}
 
@@ -591,23 +879,20 @@ public class World {
 	}
 
 	public boolean isGoalAt(Point point) {
-		for (Goal goal : goals) {
-			if (goal.getPosition().equals(point)) {
-				return true;
-			}
-		}
-
-		return false;
+		int cell = levelGrid == null ? -1 : cellIndex(point);
+		return cell >= 0 && (levelGrid[cell] & GOAL_MASK) != 0;
 	}
 
 	public Goal getGoalAt(Point point) {
-		for (Goal goal : goals) {
-			if (goal.getPosition().equals(point)) {
-				return goal;
-			}
+		int cell = levelGrid == null ? -1 : cellIndex(point);
+		if (cell < 0) {
+			return null;
 		}
+		return goalGrid[cell];
+	}
 
-		return null;
+	public boolean isFreeCell(int cell) {
+		return !isWallAt(cell) && objectGrid[cell] == 0;
 	}
 
 	public boolean isFreeCell(Point point) {
@@ -615,11 +900,8 @@ public class World {
 			return false;
 		}
 
-		if (isBoxAt(point)) {
-			return false;
-		}
-
-		if (isAgentAt(point)) {
+		int cell = objectGrid == null ? -1 : cellIndex(point);
+		if (cell >= 0 && objectGrid[cell] != 0) {
 			return false;
 		}
 
@@ -627,25 +909,27 @@ public class World {
 	}
 
 	public Box getBoxAt(Point position) {
-		for (int i = 0; i < boxes.size(); i++) {
-			if (boxes.get(i).getPosition().equals(position)) {
-				return boxes.get(i);
-			}
+		int index = boxIndexAt(position);
+		if (index < 0) {
+			return null;
 		}
-		return null;
+		return boxes.get(index);
 	}
 	
 	public Agent getAgentAt(Point position) {
-		for (int i = 0; i < agents.size(); i++) {
-			if (agents.get(i).getPosition().equals(position)) {
-				return agents.get(i);
-			}
+		int index = agentIndexAt(position);
+		if (index < 0) {
+			return null;
 		}
-		return null;
+		return agents.get(index);
 	}
 
 	public Box getBoxById(int id) {
-		for (Box box : this.getBoxes()) {
+		// Box ids are handed out in the order the boxes are added
+		if (id >= 0 && id < boxes.size() && boxes.get(id).getId() == id) {
+			return boxes.get(id);
+		}
+		for (Box box : boxes) {
 			if (box.getId() == id) {
 				return box;
 			}
@@ -654,33 +938,63 @@ public class World {
 	}
 
 	/**
-	 * Updates the world with a command an agent is executing.
-	 * 
-	 * @return boolean value which tells whether there is made a change.
+	 * Wakes the agent up, a job it has posted is done. Only the jobs that are outdated are cancelled
+	 * and their owners woken up: the other jobs of the agent, it plans again, and the jobs whose box
+	 * or agent has moved since they have been posted.
 	 */
 	public void notifyAgent(int agentId) {		
 		Agent a = this.getAgent(agentId);
 		a.setStatus(AgentStatus.ACTIVE);	
 		//a.clearIntention();
 		
-		/*List<SubIntention> removeJobs = new ArrayList<SubIntention>();
-		for(SubIntention job: jobList) {
-			if(job.getOwner() == agentId) {
-				removeJobs.add(job);
+		for(SubIntention job : jobBoard.getJobs()) {
+			if(job.getOwner() == agentId || isOutdated(job)) {
+				jobBoard.remove(job);
+				this.getAgent(job.getOwner()).setStatus(AgentStatus.ACTIVE);
 			}
 		}
-		jobList.removeAll(removeJobs);*/
-		
-		// Delete all jobs! They might be outdated!
-		while(!jobList.isEmpty()) {
-			SubIntention si = jobList.get(0);
-			a = this.getAgent(si.getOwner());
-			a.setStatus(AgentStatus.ACTIVE);
-			jobList.remove(0);				
+	}
+	
+	private boolean isOutdated(SubIntention job) {
+		if(job instanceof MoveBoxSubIntention) {
+			Box box = getBoxById(((MoveBoxSubIntention)job).getBox().getId());
+			return box == null || !box.getPosition().equals(job.getStartPosition());
+		}
+		if(job instanceof TravelSubIntention) {
+			return !getAgent(((TravelSubIntention)job).getAgentId()).getPosition().equals(job.getStartPosition());
 		}
+		return false;
 	}
 	
 	
+	/**
+	 * Reverts a Move, Push or Pull of the agent that has been applied with update.
+	 */
+	public void undo(Agent agent, Command command) {
+		int agentCell = cellIndex(agent.getPosition());
+		int previousAgentCell = neighbourCell(agentCell, Command.opposite(command.dir1));
+		switch (command.actType) {
+		case Move:
+			moveAgent(agent, cellToPoint(previousAgentCell));
+			break;
+		case Push: {
+			// The agent stands where the box was
+			int boxCell = neighbourCell(agentCell, command.dir2);
+			moveAgent(agent, cellToPoint(previousAgentCell));
+			moveBox(boxes.get(getBoxIndexAt(boxCell)).getId(), cellToPoint(agentCell));
+			break;
+		}
+		case Pull: {
+			// The box stands where the agent was
+			int boxCell = neighbourCell(previousAgentCell, command.dir2);
+			int boxId = boxes.get(getBoxIndexAt(previousAgentCell)).getId();
+			moveAgent(agent, cellToPoint(previousAgentCell));
+			moveBox(boxId, cellToPoint(boxCell));
+			break;
+		}
+		}
+	}
+	
 	public boolean update(Agent agent, Command command) {
 		
 		if(command instanceof NotifyAgentCommand) {	
@@ -692,43 +1006,46 @@ public class World {
 			return true;
 		} 
 		
+		// Checks work on cell indices, Points are only created for the objects that move
+		int agentCell = cellIndex(agent.getPosition());
 		switch (command.actType) {
 		case Move: {
-			Point agentDestPosition = agent.getPosition().move(command.dir1);
-			if (isFreeCell(agentDestPosition)) {
-				agent.setPosition(agentDestPosition);
+			int agentDestCell = neighbourCell(agentCell, command.dir1);
+			if (agentDestCell >= 0 && isFreeCell(agentDestCell)) {
+				moveAgent(agent, cellToPoint(agentDestCell));
 				return true;
 			}
 			break;
 		}
 		case Push: {
 
-			Point boxSrcPosition = agent.getPosition().move(command.dir1);
-			Point boxDestPosition = boxSrcPosition.move(command.dir2);
+			int boxSrcCell = neighbourCell(agentCell, command.dir1);
+			int boxDestCell = boxSrcCell < 0 ? -1 : neighbourCell(boxSrcCell, command.dir2);
+			int boxIndex = boxSrcCell < 0 ? -1 : getBoxIndexAt(boxSrcCell);
 
-			if (isBoxAt(boxSrcPosition) 
-					&& isFreeCell(boxDestPosition)
+			if (boxIndex >= 0 
+					&& boxDestCell >= 0 && isFreeCell(boxDestCell)
 					&& (!Command.isOpposite(command.dir1, command.dir2))
-					&& getBoxAt(boxSrcPosition).getColor().equals(agent.getColor())) {
-				agent.setPosition(boxSrcPosition);
-				Box b = getBoxAt(boxSrcPosition);
-				b.setPosition(boxDestPosition);
+					&& boxes.get(boxIndex).getColor().equals(agent.getColor())) {
+				moveBox(boxes.get(boxIndex).getId(), cellToPoint(boxDestCell));
+				moveAgent(agent, cellToPoint(boxSrcCell));
 				return true;
 			}
 
 			break;
 		}
 		case Pull: {
-			Point agentDestPosition = agent.getPosition().move(command.dir1);
-			Point boxSrcPosition = agent.getPosition().move(command.dir2);
+			int agentDestCell = neighbourCell(agentCell, command.dir1);
+			int boxSrcCell = neighbourCell(agentCell, command.dir2);
+			int boxIndex = boxSrcCell < 0 ? -1 : getBoxIndexAt(boxSrcCell);
 
-			if (isBoxAt(boxSrcPosition) 
-					&& isFreeCell(agentDestPosition) 
+			if (boxIndex >= 0 
+					&& agentDestCell >= 0 && isFreeCell(agentDestCell) 
 					&& command.dir1 != command.dir2
-					&& getBoxAt(boxSrcPosition).getColor().equals(agent.getColor())) {
-				Box b = getBoxAt(boxSrcPosition);
-				b.setPosition(agent.getPosition());
-				agent.setPosition(agentDestPosition);
+					&& boxes.get(boxIndex).getColor().equals(agent.getColor())) {
+				Point boxDestPosition = agent.getPosition();
+				moveAgent(agent, cellToPoint(agentDestCell));
+				moveBox(boxes.get(boxIndex).getId(), boxDestPosition);
 				return true;
 			}
 			break;
@@ -740,11 +1057,7 @@ public class World {
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + Arrays.deepHashCode(agents.toArray());
-		result = prime * result + Arrays.deepHashCode(boxes.toArray());
-		return result;
+		return Zobrist.fold(zobristHash);
 	}
 
 	@Override
@@ -756,21 +1069,41 @@ public class World {
 		if (getClass() != obj.getClass())
 			return false;
 		World other = (World) obj;
+		
+		if (zobristHash != other.zobristHash) {
+			return false;
+		}
+		
+		if (boxes.size() != other.boxes.size() || agents.size() != other.agents.size()) {
+			return false;
+		}
 
-		for (Box box : boxes) {
-			if (!other.boxes.contains(box)) {
+		// Same hash: compare the packed grids and the ids behind the indices stored in them
+		if (objectGrid != other.objectGrid && !Arrays.equals(objectGrid, other.objectGrid)) {
+			return false;
+		}
+		
+		for (int i = 0; i < boxes.size(); i++) {
+			if (boxes.get(i).getId() != other.boxes.get(i).getId()) {
 				return false;
 			}
 		}
-
-		for (Agent agent : agents) {
-			if (!other.agents.contains(agent)) {
+		
+		for (int i = 0; i < agents.size(); i++) {
+			if (agents.get(i).getId() != other.agents.get(i).getId()) {
 				return false;
 			}
 		}
 		return true;
 	}
 
+	/**
+	 * True if a search would see the same level in both worlds: equal objects and equal made up walls.
+	 */
+	public boolean isSameState(World other) {
+		return equals(other) && madeUpWalls.equals(other.madeUpWalls);
+	}
+
 	public boolean isInnerGoal(Goal goal) {
 		int numSurroundedWalls = 0;
 		int numSurroundedGoals = 0;
@@ -848,124 +1181,34 @@ public class World {
 		}
 	}
 
-	private Map<Integer, List<Goal>> agentGoalOrder;
-
+	/**
+	 * The goals the agent can complete in the order it should complete them, see GoalDependencies.
+	 */
 	public List<Goal> getGoalOrderForAgent(int agentId) {
-		
-		if (agentGoalOrder == null)
-			agentGoalOrder = new HashMap<Integer, List<Goal>>();
-
-		if (agentGoalOrder.containsKey(agentId))
-			return agentGoalOrder.get(agentId);
-
-		// initial sorting according to goal priority score
-		goals.sort(new GoalComparator(this));
-
-		List<Goal> orderedGoals = new ArrayList<Goal>(goals);
-
-		// remove goals, which cannot be completed by this agent
-		List<Goal> removeGoals = new ArrayList<Goal>();
-		for (Goal g : orderedGoals) {
-			List<Box> boxes = getBoxes(getAgent(agentId).getColor());
-			boolean goalCanBeCompleted = false;
-			for (Box b : boxes) {
-				if (b.getLetter() == g.getLetter()) {
-					goalCanBeCompleted = true;
-					break;
-				}
-			}
-			if (!goalCanBeCompleted) {
-				removeGoals.add(g);
-			}
-		}
-		orderedGoals.removeAll(removeGoals);
-
-		if (orderedGoals.isEmpty()) {
-			return Collections.emptyList();
-		}
-
-		Point initialAgentPos = getAgent(agentId).getPosition();
-		World initialCopyOfWorld = new World(this);
-
-		/*
-		 * for(Box b:boxes) {
-		 * if(!b.getColor().equals(getAgent(agentId).getColor())) {
-		 * initialCopyOfWorld.addWall(b.getPosition().getX(),
-		 * b.getPosition().getY()); } }
-		 */
-
-		// Check paths
-		boolean allChecked = false;
-		while (!allChecked) {
-			World copyOfWorld = new World(initialCopyOfWorld);
-			Point agentPos = initialAgentPos;
-			List<Box> boxes = copyOfWorld.getBoxes(getAgent(agentId).getColor());
-			Collections.shuffle(boxes, new Random(System.currentTimeMillis()));
-			for (int i = 0; i < orderedGoals.size(); i++) {
-				Goal g = orderedGoals.get(i);
-				boolean reachableBoxFound = false;
-				for (Box b : boxes) {
-					if (g.getLetter() == b.getLetter()) {
-						if (copyOfWorld.isPositionReachable(agentPos, b.getPosition(), true, true, agentId)) {
-							agentPos = b.getPosition();
-							boxes.remove(b);
-							reachableBoxFound = true;
-							break;
-						}
-					}
-				}
-				
-				if(!reachableBoxFound) {
-					orderedGoals.remove(i);
-					if (i != 0) {
-						orderedGoals.add(0, g);
-					}
-					break;
-				}				
-
-				boolean pathExists = copyOfWorld.isPositionReachable(agentPos, g.getPosition(), true, true,agentId);
-				if (pathExists) {
-					copyOfWorld.addMadeUpWall(g.getPosition());
-					agentPos = g.getPosition();
-					if (i == orderedGoals.size() - 1) {
-						allChecked = true;
-					}
-				} else {
-					// Collections.swap(goals, i, i-1);
-					
-					orderedGoals.remove(i);
-					if (i != 0) {
-						orderedGoals.add(0, g);
-					}
-					
-					break;
-				}
-			} // for(int i=0;i<goals.size();i++)
-		} // while(!allChecked)
-
-		agentGoalOrder.put(agentId, orderedGoals);
-
-		return orderedGoals;
+		return GoalDependencies.getGoalOrder(agentId);
+	}
+	
+	/**
+	 * Sorts the goals according to their priority score, see getGoals.
+	 * The goals are shared by all worlds, so the sorted goals replace the list instead of
+	 * reordering it under the planner threads that iterate it.
+	 */
+	public void sortGoalsByPriority() {
+		List<Goal> sorted = new ArrayList<Goal>(goals);
+		sorted.sort(new GoalComparator(this));
+		goals = sorted;
 	}
 
 	public void addJob(SubIntention i) {
-		jobList.add(i);
+		jobBoard.add(i);
+	}
+
+	public List<SubIntention> getJobs() {
+		return jobBoard.getJobs();
 	}
 
 	public SubIntention getJob(Agent agent) {
-		for (SubIntention i : jobList) {
-			if (i instanceof MoveBoxSubIntention) {
-				if (((MoveBoxSubIntention) i).getBox().getColor().equals(agent.getColor())) {
-					return i;
-				}
-			}
-			else if (i instanceof TravelSubIntention) {
-				if (((TravelSubIntention) i).getAgentId() == agent.getId()) {
-					return i;
-				}
-			}
-		}
-		return null;
+		return jobBoard.get(agent);
 	}
 	
 	/**
@@ -980,30 +1223,38 @@ public class World {
 	}
 	
 	public void removeJob(SubIntention job) {
-		jobList.remove(job);
+		jobBoard.remove(job);
 	}
 
 	public boolean isPositionReachable(Point startPos, Point endPos, boolean ignoreBoxes, boolean ignoreAgents, int movingAgentId) {
-		IHeuristicFunction function = new HeuristicPathFunction(this, endPos);
+		// Without agents the answer only depends on the components of the free cells
+		if (ignoreAgents && madeUpWalls.isEmpty()) {
+			if (ignoreBoxes) {
+				return wallComponents.isReachable(cellIndex(startPos), cellIndex(endPos));
+			}
+			if (boxComponents != null) {
+				return boxComponents.isReachable(cellIndex(startPos), cellIndex(endPos));
+			}
+		}
+		
+		IHeuristicFunction function = new HeuristicJumpPointFunction(this);
 		AStar heuristic = new AStar(function);
 		BestFirstSearch pathSearch = new BestFirstSearch(heuristic);
-		pathSearch.addToFrontier(new PathNode(this, startPos, endPos, ignoreBoxes, ignoreAgents, movingAgentId));
+		pathSearch.addToFrontier(new JumpPointNode(this, cellIndex(startPos), cellIndex(endPos), ignoreBoxes, ignoreAgents, movingAgentId));
 		while (true) {
 			if (pathSearch.frontierIsEmpty()) {
 				return false;
 			}
 
-			PathNode leafNode = (PathNode) pathSearch.getAndRemoveLeaf();
+			JumpPointNode leafNode = (JumpPointNode) pathSearch.getAndRemoveLeaf();
 
-			if (leafNode.getPosition().equals(endPos)) {
+			if (leafNode.isAtTarget()) {
 				return true;
 			}
 
 			pathSearch.addToExplored(leafNode);
 			for (SearchNode n : leafNode.getExpandedNodes()) {
-				if (!pathSearch.isExplored(n) && !pathSearch.inFrontier(n)) {
-					pathSearch.addToFrontier(n);
-				}
+				pathSearch.addToFrontier(n);
 			}
 		} // while(true)
 	}
@@ -0,0 +1,38 @@
+package client;
+
+/**
+ * Zobrist keys for agents and boxes on cells.
+ *
+ * The hash of a state is the XOR of the keys of all its agents and boxes, so moving
+ * a single object only needs two XORs. The keys are derived from (object, cell) with a
+ * 64-bit mixing function instead of random tables, so they take no memory per box.
+ */
+public final class Zobrist {
+	private static final long AGENT_SEED = 0x5851F42D4C957F2DL;
+	private static final long BOX_SEED = 0x14057B7EF767814FL;
+
+	private Zobrist() {
+	}
+
+	public static long agentKey(int agentId, int cell) {
+		return mix(AGENT_SEED + agentId * 0xC2B2AE3D27D4EB4FL + cell * 0x9E3779B97F4A7C15L);
+	}
+
+	public static long boxKey(int boxId, int cell) {
+		return mix(BOX_SEED + boxId * 0xC2B2AE3D27D4EB4FL + cell * 0x9E3779B97F4A7C15L);
+	}
+
+	/**
+	 * Folds a 64-bit hash into an int for hashCode().
+	 */
+	public static int fold(long hash) {
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	// Finalizer of SplitMix64
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}